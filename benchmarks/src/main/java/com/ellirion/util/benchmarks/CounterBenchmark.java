@@ -0,0 +1,143 @@
+package com.ellirion.util.benchmarks;
+
+import com.ellirion.util.async.Counter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CounterBenchmark {
+
+    /**
+     * A Counter shared by all benchmark threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Shared {
+
+        private Counter counter;
+
+        /**
+         * Create the shared Counter.
+         */
+        @Setup(Level.Iteration)
+        public void setup() {
+            counter = new Counter();
+        }
+    }
+
+    /**
+     * A thread to hand Counter signals off to.
+     */
+    @State(Scope.Thread)
+    public static class Signaller {
+
+        private ExecutorService executor;
+
+        /**
+         * Start the signalling thread.
+         */
+        @Setup(Level.Trial)
+        public void setup() {
+            executor = Executors.newSingleThreadExecutor();
+        }
+
+        /**
+         * Stop the signalling thread.
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Increment a Counter from a single thread.
+     * @return The new count
+     */
+    @Benchmark
+    @Threads(1)
+    public int incrementUncontended(Shared shared) {
+        shared.counter.increment();
+        return shared.counter.get();
+    }
+
+    /**
+     * Increment the same Counter from four threads at once.
+     * @return The new count
+     */
+    @Benchmark
+    @Threads(4)
+    public int incrementContended(Shared shared) {
+        shared.counter.increment();
+        return shared.counter.get();
+    }
+
+    /**
+     * Increment and decrement the same Counter from four threads, while another
+     * thread awaits zero with a timeout. This is the access pattern of a child latch.
+     * @return The count
+     */
+    @Benchmark
+    @Group("latch")
+    @GroupThreads(4)
+    public int latchUpdate(Shared shared) {
+        shared.counter.increment();
+        shared.counter.decrement();
+        return shared.counter.get();
+    }
+
+    /**
+     * The awaiting side of {@link #latchUpdate(Shared)}.
+     * @return Whether zero was observed before the timeout
+     */
+    @Benchmark
+    @Group("latch")
+    @GroupThreads(1)
+    public boolean latchAwait(Shared shared) {
+        return shared.counter.await(0, 1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Acquire and release the lock of a Counter from four threads at once.
+     * @return The count
+     */
+    @Benchmark
+    @Threads(4)
+    public int performContended(Shared shared) {
+        shared.counter.perform(shared.counter::increment);
+        return shared.counter.get();
+    }
+
+    /**
+     * Await a Counter that is released by another thread, measuring the park/unpark hand-off.
+     * @return The count
+     */
+    @Benchmark
+    @Threads(1)
+    public int awaitHandoff(Signaller signaller) {
+        Counter counter = new Counter(1);
+        signaller.executor.execute(counter::decrement);
+        counter.await();
+        return counter.get();
+    }
+}
@@ -0,0 +1,97 @@
+package com.ellirion.util.benchmarks;
+
+import com.ellirion.util.model.graph.BasicGraph;
+import com.ellirion.util.model.graph.IVertex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class GraphBenchmark {
+
+    private static final int EDGES_PER_VERTEX = 4;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    private int vertices;
+
+    private BasicGraph<Integer> graph;
+    private Random random;
+
+    /**
+     * Build a graph of {@code vertices} vertices, each connected to a few nearby vertices.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        random = new Random(42);
+        graph = build(vertices, random);
+    }
+
+    private static BasicGraph<Integer> build(int vertices, Random random) {
+        BasicGraph<Integer> graph = new BasicGraph<>();
+        for (int i = 0; i < vertices; i++) {
+            for (int j = 1; j <= EDGES_PER_VERTEX / 2; j++) {
+                graph.connect(i, (i + j) % vertices, random.nextDouble());
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Look up the vertex of a random data point.
+     * @return The vertex
+     */
+    @Benchmark
+    public IVertex<Integer> find() {
+        return graph.find(random.nextInt(vertices));
+    }
+
+    /**
+     * Check whether two random, nearby data points are connected.
+     * @return Whether they are
+     */
+    @Benchmark
+    public boolean areConnected() {
+        int a = random.nextInt(vertices);
+        return graph.areConnected(a, (a + 1 + random.nextInt(EDGES_PER_VERTEX)) % vertices);
+    }
+
+    /**
+     * Connect two random, nearby data points. Most of them are already connected,
+     * so this measures the lookup of the vertices and their edge rather than growth.
+     */
+    @Benchmark
+    public void connect() {
+        int a = random.nextInt(vertices);
+        graph.connect(a, (a + 1 + random.nextInt(EDGES_PER_VERTEX)) % vertices, 1d);
+    }
+
+    /**
+     * Build a complete graph from scratch.
+     * @return The graph
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public BasicGraph<Integer> build() {
+        return build(vertices, new Random(42));
+    }
+}
@@ -0,0 +1,154 @@
+package com.ellirion.util.benchmarks;
+
+import com.ellirion.util.model.BoundingBox;
+import com.ellirion.util.model.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+
+    private static final int COUNT = 1024;
+
+    private Point[] points;
+    private BoundingBox[] boxes;
+    private int index;
+
+    /**
+     * Generate random Points and BoundingBoxes to operate on.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        points = new Point[COUNT];
+        boxes = new BoundingBox[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            points[i] = new Point(random.nextInt(512) - 256, random.nextInt(256), random.nextInt(512) - 256);
+        }
+        for (int i = 0; i < COUNT; i++) {
+            boxes[i] = new BoundingBox(points[i], points[(i + 1) % COUNT]);
+        }
+    }
+
+    private int next() {
+        index = (index + 1) & (COUNT - 1);
+        return index;
+    }
+
+    /**
+     * Take the component-wise minimum and maximum of two Points.
+     * @return The maximum
+     */
+    @Benchmark
+    public Point pointMinMax() {
+        int i = next();
+        Point a = points[i];
+        Point b = points[(i + 1) & (COUNT - 1)];
+        return a.min(b).max(b);
+    }
+
+    /**
+     * Calculate the Euclidian distance between two Points.
+     * @return The distance
+     */
+    @Benchmark
+    public double pointDistanceEuclidian() {
+        int i = next();
+        return points[i].distanceEuclidian(points[(i + 1) & (COUNT - 1)]);
+    }
+
+    /**
+     * Calculate the distance from a Point to a line through two other Points.
+     * @return The distance
+     */
+    @Benchmark
+    public double pointDistanceFromLine() {
+        int i = next();
+        return points[i].distanceFromLine(points[(i + 1) & (COUNT - 1)], points[(i + 2) & (COUNT - 1)]);
+    }
+
+    /**
+     * Translate a Point by another Point.
+     * @return The translated Point
+     */
+    @Benchmark
+    public Point pointTranslate() {
+        int i = next();
+        return points[i].translate(points[(i + 1) & (COUNT - 1)]);
+    }
+
+    /**
+     * Hash a Point, as done for every lookup in a graph or map.
+     * @return The hash code
+     */
+    @Benchmark
+    public int pointHashCode() {
+        return points[next()].hashCode();
+    }
+
+    /**
+     * Create a BoundingBox from two Points.
+     * @return The BoundingBox
+     */
+    @Benchmark
+    public BoundingBox boxCreate() {
+        int i = next();
+        return new BoundingBox(points[i], points[(i + 1) & (COUNT - 1)]);
+    }
+
+    /**
+     * Check whether a BoundingBox contains a Point.
+     * @return Whether it does
+     */
+    @Benchmark
+    public boolean boxIntersectsPoint() {
+        int i = next();
+        return boxes[i].intersects(points[(i + 7) & (COUNT - 1)]);
+    }
+
+    /**
+     * Check whether two BoundingBoxes overlap.
+     * @return Whether they do
+     */
+    @Benchmark
+    public boolean boxIntersectsBox() {
+        int i = next();
+        return boxes[i].intersects(boxes[(i + 7) & (COUNT - 1)]);
+    }
+
+    /**
+     * Move a BoundingBox to a new origin.
+     * @return The moved BoundingBox
+     */
+    @Benchmark
+    public BoundingBox boxToWorld() {
+        int i = next();
+        return boxes[i].toWorld(points[(i + 1) & (COUNT - 1)]);
+    }
+
+    /**
+     * Get the corners of a BoundingBox.
+     * @return The corners
+     */
+    @Benchmark
+    public Point[] boxCorners() {
+        return boxes[next()].getCorners();
+    }
+}
@@ -0,0 +1,129 @@
+package com.ellirion.util.benchmarks;
+
+import com.ellirion.util.async.IPromiseFinisher;
+import com.ellirion.util.async.Promise;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PromiseBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int depth;
+
+    private ExecutorService resolver;
+
+    /**
+     * Install the stub runners and start the thread that resolves Promises for us.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        Runners.install();
+        resolver = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Stop the resolving thread.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        resolver.shutdownNow();
+    }
+
+    /**
+     * Create an already resolved Promise.
+     * @return The Promise
+     */
+    @Benchmark
+    public Promise<Integer> createResolved() {
+        return Promise.resolve(depth);
+    }
+
+    /**
+     * Create a Promise whose body runs on the (inline) sync runner.
+     * @return The Promise
+     */
+    @Benchmark
+    public Promise<Integer> createWithBody() {
+        return new Promise<>(f -> f.resolve(depth), false);
+    }
+
+    /**
+     * Chain {@code depth} continuations onto a pending Promise, then resolve it.
+     * @return The result at the end of the chain
+     */
+    @Benchmark
+    public Integer thenChain() {
+        Promise<Integer> root = new Promise<>();
+        Promise<Integer> p = root;
+        for (int i = 0; i < depth; i++) {
+            p = p.then(PromiseBenchmark::increment, false);
+        }
+        root.getFinisher().resolve(0);
+        return p.getResult();
+    }
+
+    /**
+     * Chain {@code depth} continuations onto a Promise that has already been resolved.
+     * @return The result at the end of the chain
+     */
+    @Benchmark
+    public Integer thenChainResolved() {
+        Promise<Integer> p = Promise.resolve(0);
+        for (int i = 0; i < depth; i++) {
+            p = p.then(PromiseBenchmark::increment, false);
+        }
+        return p.getResult();
+    }
+
+    /**
+     * Resolve a Promise on another thread while this thread awaits it.
+     * @return The result of the Promise
+     */
+    @Benchmark
+    public Integer crossThreadResolve() {
+        Promise<Integer> p = new Promise<>();
+        IPromiseFinisher<Integer> finisher = p.getFinisher();
+        resolver.execute(() -> finisher.resolve(depth));
+        p.await();
+        return p.getResult();
+    }
+
+    /**
+     * Run a chain of {@code depth} async continuations on the ForkJoinRunner and await the end.
+     * @return The result at the end of the chain
+     */
+    @Benchmark
+    public Integer asyncChain() {
+        Promise<Integer> p = new Promise<>(f -> f.resolve(0), true);
+        for (int i = 0; i < depth; i++) {
+            p = p.then(PromiseBenchmark::increment, true);
+        }
+        p.await();
+        return p.getResult();
+    }
+
+    private static Integer increment(Integer i) {
+        return i + 1;
+    }
+}
@@ -0,0 +1,22 @@
+package com.ellirion.util.benchmarks;
+
+import com.ellirion.util.async.ForkJoinRunner;
+import com.ellirion.util.async.Promise;
+
+public final class Runners {
+
+    private Runners() {
+    }
+
+    /**
+     * Replace the Bukkit scheduler with a stub, so benchmarks can run without a server.
+     * Sync Promises run on the thread that schedules them, like the main thread would
+     * if it had nothing else to do. Async Promises use the default ForkJoinRunner.
+     */
+    public static void install() {
+        Promise.setSyncRunner(Runnable::run);
+        if (!(Promise.getAsyncRunner() instanceof ForkJoinRunner)) {
+            Promise.setAsyncRunner(new ForkJoinRunner());
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.ellirion.util.benchmarks;
+
+import com.ellirion.util.async.Promise;
+import com.ellirion.util.transact.SequenceTransaction;
+import com.ellirion.util.transact.SimpleTransaction;
+import com.ellirion.util.transact.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionBenchmark {
+
+    private static final int FAN_OUT = 10;
+
+    @Param({"10", "100", "1000"})
+    private int size;
+
+    /**
+     * 'flat' puts all leaves directly in one SequenceTransaction,
+     * 'nested' builds a tree with at most {@value FAN_OUT} children per SequenceTransaction.
+     */
+    @Param({"flat", "nested"})
+    private String shape;
+
+    private SequenceTransaction tree;
+
+    /**
+     * Install the stub runners and build the Transaction tree.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        Runners.install();
+        Transaction[] leaves = new Transaction[size];
+        for (int i = 0; i < size; i++) {
+            leaves[i] = new SimpleTransaction(() -> Promise.resolve(true), () -> Promise.resolve(true));
+        }
+        tree = shape.equals("flat") ? new SequenceTransaction(leaves) : nest(leaves);
+    }
+
+    /**
+     * Apply the whole tree and revert it again, so every invocation starts unapplied.
+     * @return Whether the revert succeeded
+     */
+    @Benchmark
+    public boolean applyRevert() {
+        tree.apply().await();
+        Promise<Boolean> p = tree.revert();
+        p.await();
+        return p.getResult();
+    }
+
+    private static SequenceTransaction nest(Transaction[] level) {
+        while (level.length > FAN_OUT) {
+            Transaction[] parents = new Transaction[(level.length + FAN_OUT - 1) / FAN_OUT];
+            for (int i = 0; i < parents.length; i++) {
+                int from = i * FAN_OUT;
+                int to = Math.min(from + FAN_OUT, level.length);
+                Transaction[] children = new Transaction[to - from];
+                System.arraycopy(level, from, children, 0, children.length);
+                parents[i] = new SequenceTransaction(children);
+            }
+            level = parents;
+        }
+        return new SequenceTransaction(level);
+    }
+}
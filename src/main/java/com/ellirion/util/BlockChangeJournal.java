@@ -0,0 +1,596 @@
+package com.ellirion.util;
+
+import net.minecraft.server.v1_12_R1.NBTCompressedStreamTools;
+import net.minecraft.server.v1_12_R1.NBTTagCompound;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.World;
+import com.ellirion.util.model.BoundingBox;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.UUID;
+
+/**
+ * A compact record of block changes in a single World. For every change it stores the coordinates,
+ * and the material id, metadata and (when present) NBT data of the block before and after the change.
+ * <p>
+ * Every property is stored in its own column in an off-heap buffer, and NBT data is only stored when
+ * present, as a compressed blob. A million changes take about 22 MB outside of the heap, rather than
+ * millions of objects on it. The changes can be replayed in both directions by a {@link JournalTransaction}.
+ */
+public class BlockChangeJournal {
+
+    /**
+     * The material id of a 'before' state that has not been recorded yet.
+     */
+    public static final int UNKNOWN = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int NO_NBT = -1;
+    // Y is stored in 12 bits, without a sign.
+    private static final int MAX_Y = 0xFFF;
+
+    private final UUID world;
+    private int size;
+    private int capacity;
+
+    // One column per property. Material ids, data and NBT offsets have a 'before' and 'after' column.
+    private ByteBuffer coords;
+    private ByteBuffer beforeIds;
+    private ByteBuffer afterIds;
+    private ByteBuffer beforeData;
+    private ByteBuffer afterData;
+    private ByteBuffer beforeNbt;
+    private ByteBuffer afterNbt;
+    private ByteBuffer blobs;
+    private int blobSize;
+    // Bytes of the blobs that are no longer referenced by any change, because their NBT data was replaced.
+    private int deadBytes;
+
+    /**
+     * Construct an empty BlockChangeJournal for changes in {@code world}.
+     * @param world The World the changes are made in
+     */
+    public BlockChangeJournal(final World world) {
+        this(world.getUID(), INITIAL_CAPACITY);
+    }
+
+    private BlockChangeJournal(final UUID world, final int capacity) {
+        this.world = world;
+        this.size = 0;
+        this.capacity = 0;
+        this.blobs = ByteBuffer.allocateDirect(0);
+        this.blobSize = 0;
+        this.deadBytes = 0;
+        grow(Math.max(capacity, 1));
+    }
+
+    /**
+     * Read a journal that was written by {@link #write(WritableByteChannel)} from {@code channel}.
+     * @param channel The channel to read from
+     * @return The BlockChangeJournal
+     * @throws IOException when reading from {@code channel} fails, it ends too soon,
+     * or it holds a material id that is unknown
+     */
+    public static BlockChangeJournal read(ReadableByteChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8 + 8 + 4 + 4);
+        readFully(channel, header);
+        header.flip();
+        UUID world = new UUID(header.getLong(), header.getLong());
+        int size = header.getInt();
+        int blobSize = header.getInt();
+
+        BlockChangeJournal journal = new BlockChangeJournal(world, size);
+        journal.size = size;
+        for (ByteBuffer column : journal.columns()) {
+            readFully(channel, slice(column, column.capacity() / journal.capacity * size));
+        }
+        journal.blobs = ByteBuffer.allocateDirect(blobSize);
+        journal.blobSize = blobSize;
+        readFully(channel, slice(journal.blobs, blobSize));
+        journal.deadBytes = blobSize - journal.liveBytes();
+
+        // Every material id has to be known, or the changes could not be replayed.
+        for (int i = 0; i < size; i++) {
+            if (!isKnown(journal.getTypeId(i, false), false) || !isKnown(journal.getTypeId(i, true), true)) {
+                throw new IOException("The journal holds an unknown material id for change " + i);
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * Record a change of which the 'before' state is not known yet. It is recorded
+     * when the change is applied for the first time.
+     * @param x The X coordinate of the block
+     * @param y The Y coordinate of the block
+     * @param z The Z coordinate of the block
+     * @param mat The Material the block is changed to
+     * @param data The metadata the block is changed to
+     * @param nbt The nbtdata the block is changed to, or null
+     * @return The index of the change
+     * @throws IllegalArgumentException when {@code y} is below 0 or above 4095
+     */
+    public int add(int x, int y, int z, Material mat, byte data, NBTTagCompound nbt) {
+        return add(x, y, z, UNKNOWN, (byte) 0, null, mat.getId(), data, nbt);
+    }
+
+    /**
+     * Record a change of which both the 'before' and 'after' states are known.
+     * @param x The X coordinate of the block
+     * @param y The Y coordinate of the block
+     * @param z The Z coordinate of the block
+     * @param beforeId The material id of the block before the change
+     * @param beforeData The metadata of the block before the change
+     * @param beforeNbt The nbtdata of the block before the change, or null
+     * @param afterId The material id of the block after the change
+     * @param afterData The metadata of the block after the change
+     * @param afterNbt The nbtdata of the block after the change, or null
+     * @return The index of the change
+     * @throws IllegalArgumentException when {@code y} is below 0 or above 4095,
+     * or either material id is unknown
+     */
+    public synchronized int add(int x, int y, int z,
+                                int beforeId, byte beforeData, NBTTagCompound beforeNbt,
+                                int afterId, byte afterData, NBTTagCompound afterNbt) {
+        // Check everything before the change is added, so we never hold a half recorded change.
+        if (y < 0 || y > MAX_Y) {
+            throw new IllegalArgumentException("Y coordinate " + y + " is out of range");
+        }
+        if (!isKnown(beforeId, false) || !isKnown(afterId, true)) {
+            throw new IllegalArgumentException("Unknown material id " + (isKnown(beforeId, false) ? afterId : beforeId));
+        }
+        if (size == capacity) {
+            grow(capacity * 2);
+        }
+
+        int i = size++;
+        coords.putLong(i * 8, pack(x, y, z));
+        this.beforeNbt.putInt(i * 4, NO_NBT);
+        this.afterNbt.putInt(i * 4, NO_NBT);
+        set(i, false, beforeId, beforeData, beforeNbt);
+        set(i, true, afterId, afterData, afterNbt);
+        return i;
+    }
+
+    /**
+     * Record the state of the block before change {@code i}.
+     * @param i The index of the change
+     * @param typeId The material id of the block
+     * @param data The metadata of the block
+     * @param nbt The nbtdata of the block, or null
+     * @throws IllegalArgumentException when the material id is unknown
+     */
+    public synchronized void setBefore(int i, int typeId, byte data, NBTTagCompound nbt) {
+        checkIndex(i);
+        set(i, false, typeId, data, nbt);
+    }
+
+    /**
+     * Record the state of the block after change {@code i}.
+     * @param i The index of the change
+     * @param typeId The material id of the block
+     * @param data The metadata of the block
+     * @param nbt The nbtdata of the block, or null
+     * @throws IllegalArgumentException when the material id is unknown
+     */
+    public synchronized void setAfter(int i, int typeId, byte data, NBTTagCompound nbt) {
+        checkIndex(i);
+        set(i, true, typeId, data, nbt);
+    }
+
+    /**
+     * Copy the changes whose 'before' state has been recorded into a new journal, in the same order.
+     * When a replay fails part of the way, these are the changes that made it into the world.
+     * @return The new BlockChangeJournal
+     */
+    synchronized BlockChangeJournal applied() {
+        BlockChangeJournal copy = new BlockChangeJournal(world, INITIAL_CAPACITY);
+        for (int i = 0; i < size; i++) {
+            if (getTypeId(i, false) == UNKNOWN) {
+                continue;
+            }
+            copy.add(getX(i), getY(i), getZ(i),
+                     getTypeId(i, false), getData(i, false), getNbt(i, false),
+                     getTypeId(i, true), getData(i, true), getNbt(i, true));
+        }
+        return copy;
+    }
+
+    /**
+     * Write all changes in this journal to {@code channel}. The columns are written as they are,
+     * straight from the off-heap buffers.
+     * @param channel The channel to write to
+     * @throws IOException when writing to {@code channel} fails
+     */
+    public synchronized void write(WritableByteChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8 + 8 + 4 + 4);
+        header.putLong(world.getMostSignificantBits()).putLong(world.getLeastSignificantBits());
+        header.putInt(size).putInt(blobSize);
+        header.flip();
+        writeFully(channel, header);
+
+        for (ByteBuffer column : columns()) {
+            writeFully(channel, slice(column, column.capacity() / capacity * size));
+        }
+        writeFully(channel, slice(blobs, blobSize));
+    }
+
+    /**
+     * Gets the World the changes are made in.
+     * @return The World, or null if it is not loaded
+     */
+    public World getWorld() {
+        return Bukkit.getWorld(world);
+    }
+
+    /**
+     * Gets the amount of changes in this journal.
+     * @return The amount of changes
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets the amount of off-heap memory this journal holds on to.
+     * @return The amount of bytes
+     */
+    public synchronized long getMemoryUsage() {
+        return (long) capacity * (8 + 2 + 2 + 1 + 1 + 4 + 4) + blobs.capacity();
+    }
+
+    /**
+     * Gets the X coordinate of change {@code i}.
+     * @param i The index of the change
+     * @return The X coordinate
+     */
+    public synchronized int getX(int i) {
+        checkIndex(i);
+        return unpackX(coords.getLong(i * 8));
+    }
+
+    /**
+     * Gets the Y coordinate of change {@code i}.
+     * @param i The index of the change
+     * @return The Y coordinate
+     */
+    public synchronized int getY(int i) {
+        checkIndex(i);
+        return unpackY(coords.getLong(i * 8));
+    }
+
+    /**
+     * Gets the Z coordinate of change {@code i}.
+     * @param i The index of the change
+     * @return The Z coordinate
+     */
+    public synchronized int getZ(int i) {
+        checkIndex(i);
+        return unpackZ(coords.getLong(i * 8));
+    }
+
+    /**
+     * Gets the smallest BoundingBox that contains all changes in this journal.
+     * @return The BoundingBox, or null if this journal is empty
+     */
+    public synchronized BoundingBox getBounds() {
+        if (size == 0) {
+            return null;
+        }
+        int x1 = Integer.MAX_VALUE, y1 = Integer.MAX_VALUE, z1 = Integer.MAX_VALUE;
+        int x2 = Integer.MIN_VALUE, y2 = Integer.MIN_VALUE, z2 = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            long packed = coords.getLong(i * 8);
+            int x = unpackX(packed);
+            int y = unpackY(packed);
+            int z = unpackZ(packed);
+            x1 = Math.min(x1, x);
+            y1 = Math.min(y1, y);
+            z1 = Math.min(z1, z);
+            x2 = Math.max(x2, x);
+            y2 = Math.max(y2, y);
+            z2 = Math.max(z2, z);
+        }
+        return new BoundingBox(x1, y1, z1, x2, y2, z2);
+    }
+
+    /**
+     * Gets the material id of the block before or after change {@code i}.
+     * @param i The index of the change
+     * @param after Whether to get the state after the change, rather than before
+     * @return The material id, or {@link #UNKNOWN} if it has not been recorded yet
+     */
+    public synchronized int getTypeId(int i, boolean after) {
+        checkIndex(i);
+        return (after ? afterIds : beforeIds).getShort(i * 2);
+    }
+
+    /**
+     * Gets the metadata of the block before or after change {@code i}.
+     * @param i The index of the change
+     * @param after Whether to get the state after the change, rather than before
+     * @return The metadata
+     */
+    public synchronized byte getData(int i, boolean after) {
+        checkIndex(i);
+        return (after ? afterData : beforeData).get(i);
+    }
+
+    /**
+     * Gets the nbtdata of the block before or after change {@code i}.
+     * @param i The index of the change
+     * @param after Whether to get the state after the change, rather than before
+     * @return A new copy of the nbtdata, or null if the block has none
+     */
+    public synchronized NBTTagCompound getNbt(int i, boolean after) {
+        checkIndex(i);
+        return nbt(i, after);
+    }
+
+    /**
+     * Read the coordinates and the state before or after change {@code i} while holding the lock once,
+     * rather than once per property.
+     * @param i The index of the change
+     * @param after Whether to read the state after the change, rather than before
+     * @param reader The function to pass the change to
+     * @param <T> The type of the result of {@code reader}
+     * @return The result of {@code reader}
+     */
+    synchronized <T> T read(int i, boolean after, IChangeReader<T> reader) {
+        checkIndex(i);
+        long packed = coords.getLong(i * 8);
+        return reader.read(unpackX(packed), unpackY(packed), unpackZ(packed),
+                           (after ? afterIds : beforeIds).getShort(i * 2), (after ? afterData : beforeData).get(i),
+                           nbt(i, after));
+    }
+
+    /**
+     * Find the first change from {@code from} (inclusive) up to {@code to} (exclusive) of which the state
+     * before or after the change has not been recorded yet.
+     * @param from The index of the first change
+     * @param to The index after the last change
+     * @param after Whether to check the state after the change, rather than before
+     * @return The index of the change, or -1 if every state has been recorded
+     */
+    synchronized int indexOfUnknown(int from, int to, boolean after) {
+        ByteBuffer column = after ? afterIds : beforeIds;
+        for (int i = from; i < to; i++) {
+            checkIndex(i);
+            if (column.getShort(i * 2) == UNKNOWN) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Count the changes starting at {@code start} that are in the same chunk as it, stepping through
+     * the journal by {@code step} until a change in another chunk or {@code max} changes are found.
+     * @param start The index of the first change
+     * @param step The distance between two changes, 1 to count forwards or -1 to count backwards
+     * @param max The largest count to return
+     * @return The amount of changes, at least 1
+     */
+    synchronized int countInChunk(int start, int step, int max) {
+        checkIndex(start);
+        checkIndex(start + (max - 1) * step);
+        long packed = coords.getLong(start * 8);
+        int chunkX = unpackX(packed) >> 4;
+        int chunkZ = unpackZ(packed) >> 4;
+        int count = 1;
+        while (count < max) {
+            packed = coords.getLong((start + count * step) * 8);
+            if (unpackX(packed) >> 4 != chunkX || unpackZ(packed) >> 4 != chunkZ) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private NBTTagCompound nbt(int i, boolean after) {
+        int offset = (after ? afterNbt : beforeNbt).getInt(i * 4);
+        if (offset == NO_NBT) {
+            return null;
+        }
+
+        byte[] blob = new byte[blobs.getInt(offset)];
+        ByteBuffer view = blobs.duplicate();
+        view.position(offset + 4);
+        view.get(blob);
+        try {
+            return NBTCompressedStreamTools.a(new ByteArrayInputStream(blob));
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not read nbtdata of change " + i, ex);
+        }
+    }
+
+    private void set(int i, boolean after, int typeId, byte data, NBTTagCompound nbt) {
+        if (!isKnown(typeId, after)) {
+            throw new IllegalArgumentException("Unknown material id " + typeId + " for change " + i);
+        }
+        (after ? afterIds : beforeIds).putShort(i * 2, (short) typeId);
+        (after ? afterData : beforeData).put(i, data);
+
+        ByteBuffer column = after ? afterNbt : beforeNbt;
+        int old = column.getInt(i * 4);
+        if (nbt == null) {
+            if (old != NO_NBT) {
+                deadBytes += blobs.getInt(old) + 4;
+            }
+            column.putInt(i * 4, NO_NBT);
+            return;
+        }
+        // Nothing refers to the old blob while the new one is stored, so a compaction won't keep it alive.
+        column.putInt(i * 4, NO_NBT);
+        column.putInt(i * 4, store(old, nbt));
+    }
+
+    private int store(int old, NBTTagCompound nbt) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            NBTCompressedStreamTools.a(nbt, out);
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not write nbtdata", ex);
+        }
+        byte[] blob = out.toByteArray();
+
+        // If the new blob fits where the old one was, we simply overwrite it.
+        if (old != NO_NBT) {
+            int length = blobs.getInt(old);
+            if (blob.length <= length) {
+                put(old, blob);
+                deadBytes += length - blob.length;
+                return old;
+            }
+            deadBytes += length + 4;
+        }
+
+        // Otherwise it goes at the end. When we run out of room and at least half of the
+        // blobs are dead, we pack the live ones together rather than growing any further.
+        if (blobs.capacity() - blobSize < blob.length + 4) {
+            if (deadBytes >= blobSize / 2) {
+                compact(blob.length + 4);
+            } else {
+                blobs = copy(blobs, Math.max(blobs.capacity() * 2, blobSize + blob.length + 4));
+            }
+        }
+        int offset = blobSize;
+        put(offset, blob);
+        blobSize = offset + blob.length + 4;
+        return offset;
+    }
+
+    private void put(int offset, byte[] blob) {
+        blobs.putInt(offset, blob.length);
+        ByteBuffer view = blobs.duplicate();
+        view.position(offset + 4);
+        view.put(blob);
+    }
+
+    private void compact(int extra) {
+        int live = blobSize - deadBytes;
+        ByteBuffer packed = ByteBuffer.allocateDirect(Math.max((live + extra) * 2, INITIAL_CAPACITY));
+        int packedSize = 0;
+        for (ByteBuffer column : new ByteBuffer[] {beforeNbt, afterNbt}) {
+            for (int i = 0; i < size; i++) {
+                int offset = column.getInt(i * 4);
+                if (offset == NO_NBT) {
+                    continue;
+                }
+                int bytes = blobs.getInt(offset) + 4;
+                ByteBuffer view = blobs.duplicate();
+                view.position(offset);
+                view.limit(offset + bytes);
+                packed.position(packedSize);
+                packed.put(view);
+                column.putInt(i * 4, packedSize);
+                packedSize += bytes;
+            }
+        }
+        packed.clear();
+        blobs = packed;
+        blobSize = packedSize;
+        deadBytes = 0;
+    }
+
+    private int liveBytes() {
+        int live = 0;
+        for (ByteBuffer column : new ByteBuffer[] {beforeNbt, afterNbt}) {
+            for (int i = 0; i < size; i++) {
+                int offset = column.getInt(i * 4);
+                if (offset != NO_NBT) {
+                    live += blobs.getInt(offset) + 4;
+                }
+            }
+        }
+        return live;
+    }
+
+    private static boolean isKnown(int typeId, boolean after) {
+        // Only the 'before' state may not have been recorded yet.
+        return (!after && typeId == UNKNOWN) || Material.getMaterial(typeId) != null;
+    }
+
+    private ByteBuffer[] columns() {
+        return new ByteBuffer[] {coords, beforeIds, afterIds, beforeData, afterData, beforeNbt, afterNbt};
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int bytes) {
+        ByteBuffer view = buffer.duplicate();
+        view.clear();
+        view.limit(bytes);
+        return view;
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("The journal ended before it was complete");
+            }
+        }
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void grow(int newCapacity) {
+        coords = copy(coords, newCapacity * 8);
+        beforeIds = copy(beforeIds, newCapacity * 2);
+        afterIds = copy(afterIds, newCapacity * 2);
+        beforeData = copy(beforeData, newCapacity);
+        afterData = copy(afterData, newCapacity);
+        beforeNbt = copy(beforeNbt, newCapacity * 4);
+        afterNbt = copy(afterNbt, newCapacity * 4);
+        capacity = newCapacity;
+    }
+
+    private static ByteBuffer copy(ByteBuffer old, int bytes) {
+        ByteBuffer grown = ByteBuffer.allocateDirect(bytes);
+        if (old != null) {
+            ByteBuffer view = old.duplicate();
+            view.clear();
+            grown.put(view);
+            grown.clear();
+        }
+        return grown;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Change " + i + " is not part of this journal of size " + size);
+        }
+    }
+
+    private static int unpackX(long packed) {
+        return (int) (packed >> 38);
+    }
+
+    private static int unpackY(long packed) {
+        return (int) (packed & MAX_Y);
+    }
+
+    private static int unpackZ(long packed) {
+        return (int) (packed << 26 >> 38);
+    }
+
+    static long pack(int x, int y, int z) {
+        // 26 bits for X and Z covers the whole world, and 12 bits for Y is plenty.
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & MAX_Y);
+    }
+
+    @FunctionalInterface
+    interface IChangeReader<T> {
+        T read(int x, int y, int z, int typeId, byte data, NBTTagCompound nbt);
+    }
+}
@@ -0,0 +1,27 @@
+package com.ellirion.util;
+
+import lombok.Getter;
+
+public enum BlockChangePriority {
+    /**
+     * Changes someone is actively waiting for, such as those made by a player command.
+     * These are always applied before any other change.
+     */
+    INTERACTIVE(0),
+
+    /**
+     * Regular changes. These get four turns for every turn of {@link #BULK}.
+     */
+    NORMAL(4),
+
+    /**
+     * Large jobs, such as pasting structures, that may take a while to finish.
+     */
+    BULK(1);
+
+    @Getter private final int weight;
+
+    BlockChangePriority(final int weight) {
+        this.weight = weight;
+    }
+}
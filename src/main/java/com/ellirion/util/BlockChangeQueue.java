@@ -0,0 +1,326 @@
+package com.ellirion.util;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A queue that takes from separate queues per {@link BlockChangePriority} and per submitter.
+ * {@link BlockChangePriority#INTERACTIVE} items are always taken first. The other priorities
+ * take turns according to their weight. Within a priority, every submitter takes turns.
+ * <p>
+ * The items of every submitter are grouped in buckets, such as the chunk they are in. A bucket
+ * is drained completely before moving on to the bucket with the lowest rank. Items in the same
+ * bucket are taken in the order they were added.
+ * <p>
+ * Items are added as {@link IRun runs} of one or more items, which are taken one item at a time.
+ * A run stays at the front of its bucket until its last item has been taken, so a run can build
+ * its items as they are taken, rather than all of them up front.
+ * @param <K> The type of the bucket keys
+ * @param <T> The type of the queued items
+ */
+final class BlockChangeQueue<K, T> {
+
+    // Submitters take a few items per turn, since consecutive changes
+    // of one submitter are likely to be in the same chunk.
+    private static final int QUANTUM = 16;
+
+    private final Function<? super T, ? extends K> bucketOf;
+    private final Lane<K, T> interactive;
+    private final Lane<K, T>[] weighted;
+    private ToDoubleFunction<? super K> ranking;
+    private int current;
+    private int credit;
+    private int size;
+
+    /**
+     * Construct a BlockChangeQueue that groups items using {@code bucketOf}.
+     * @param bucketOf The function that gets the bucket key of an item
+     */
+    @SuppressWarnings("unchecked")
+    BlockChangeQueue(final Function<? super T, ? extends K> bucketOf) {
+        this.bucketOf = bucketOf;
+        interactive = new Lane<>(BlockChangePriority.INTERACTIVE);
+        weighted = new Lane[] {new Lane<>(BlockChangePriority.NORMAL), new Lane<>(BlockChangePriority.BULK)};
+        ranking = key -> 0;
+        current = 0;
+        credit = weighted[0].getCredit();
+        size = 0;
+    }
+
+    /**
+     * Add the items of {@code run} to the queue of {@code submitter} at the given {@code priority}.
+     * All items of the run go in the bucket of its first item.
+     * @param run The items to add
+     * @param priority The priority of the items
+     * @param submitter Whoever submitted the items, or null
+     * @throws IllegalArgumentException when {@code priority} is null
+     */
+    synchronized void add(IRun<T> run, BlockChangePriority priority, Object submitter) {
+        if (priority == null) {
+            throw new IllegalArgumentException("The priority of block changes must not be null");
+        }
+        if (run.size() == 0) {
+            return;
+        }
+        Lane<K, T> lane = interactive;
+        for (Lane<K, T> l : weighted) {
+            if (l.priority == priority) {
+                lane = l;
+            }
+        }
+        lane.add(bucketOf.apply(run.peek()), run, submitter);
+        size += run.size();
+    }
+
+    /**
+     * Sets the function used to pick the next bucket when a submitter has finished its
+     * current one. The bucket with the lowest rank goes first. It is only invoked from
+     * within {@link #poll()} and {@link #pollIf(Predicate)}, and every bucket is ranked
+     * once per function that is set, so set a new one whenever the ranks may have changed.
+     * @param ranking The ranking function
+     */
+    synchronized void setRanking(ToDoubleFunction<? super K> ranking) {
+        this.ranking = ranking;
+    }
+
+    /**
+     * Removes and returns the next item.
+     * @return The next item, or null if the queue is empty
+     */
+    synchronized T poll() {
+        return pollIf(item -> true);
+    }
+
+    /**
+     * Removes and returns the next item, but only if {@code filter} accepts it.
+     * @param filter The filter the next item has to pass
+     * @return The next item, or null if the queue is empty or the item was not accepted
+     */
+    synchronized T pollIf(Predicate<? super T> filter) {
+        Lane<K, T> lane = next();
+        if (lane == null || !filter.test(lane.head().peek(ranking))) {
+            return null;
+        }
+        if (lane != interactive) {
+            credit--;
+        }
+        size--;
+        return lane.take(ranking);
+    }
+
+    /**
+     * Gets the total amount of queued items.
+     * @return The amount of items
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    private Lane<K, T> next() {
+        // Calling this repeatedly without taking anything returns the same lane every time,
+        // so a filtered item is still the next one when we come back for it.
+        if (!interactive.isEmpty()) {
+            return interactive;
+        }
+
+        for (int i = 0; i <= weighted.length; i++) {
+            Lane<K, T> lane = weighted[current];
+            if (credit > 0 && !lane.isEmpty()) {
+                return lane;
+            }
+
+            // This lane used up its turn or has nothing left, so give the next one a turn.
+            current = (current + 1) % weighted.length;
+            credit = weighted[current].getCredit();
+        }
+        return null;
+    }
+
+    private static final class Lane<K, T> {
+
+        private final BlockChangePriority priority;
+        private final ArrayDeque<Submitter<K, T>> ring;
+        private final Map<Object, Submitter<K, T>> submitters;
+
+        Lane(final BlockChangePriority priority) {
+            this.priority = priority;
+            this.ring = new ArrayDeque<>();
+            this.submitters = new HashMap<>();
+        }
+
+        int getCredit() {
+            return priority.getWeight() * QUANTUM;
+        }
+
+        void add(K key, IRun<T> run, Object submitter) {
+            Submitter<K, T> s = submitters.get(submitter);
+            if (s == null) {
+                s = new Submitter<>(submitter);
+                submitters.put(submitter, s);
+                ring.add(s);
+            }
+            s.add(key, run);
+        }
+
+        boolean isEmpty() {
+            return ring.isEmpty();
+        }
+
+        Submitter<K, T> head() {
+            // Once the submitter at the front had its turn, move it to the back.
+            Submitter<K, T> s = ring.peek();
+            if (s.taken >= QUANTUM) {
+                s.taken = 0;
+                ring.add(ring.poll());
+                s = ring.peek();
+            }
+            return s;
+        }
+
+        T take(ToDoubleFunction<? super K> ranking) {
+            Submitter<K, T> s = head();
+            T item = s.take(ranking);
+            s.taken++;
+
+            // Forget about submitters that have nothing left.
+            if (s.size == 0) {
+                ring.poll();
+                submitters.remove(s.key);
+            }
+            return item;
+        }
+    }
+
+    private static final class Submitter<K, T> {
+
+        private final Object key;
+        private final Map<K, Bucket<K, T>> buckets;
+        private final PriorityQueue<Bucket<K, T>> ranked;
+        private final ArrayDeque<Bucket<K, T>> unranked;
+        private ToDoubleFunction<? super K> rankedBy;
+        private Bucket<K, T> bucket;
+        private long added;
+        private int size;
+        private int taken;
+
+        Submitter(final Object key) {
+            this.key = key;
+            this.buckets = new HashMap<>();
+            this.ranked = new PriorityQueue<>();
+            this.unranked = new ArrayDeque<>();
+            this.rankedBy = null;
+            this.bucket = null;
+            this.added = 0;
+            this.size = 0;
+            this.taken = 0;
+        }
+
+        void add(K key, IRun<T> run) {
+            Bucket<K, T> b = buckets.get(key);
+            if (b == null) {
+                // New buckets are only ranked once we need to pick one, since that
+                // is the only time the ranking function may be invoked.
+                b = new Bucket<>(key, added++);
+                buckets.put(key, b);
+                unranked.add(b);
+            }
+            b.runs.add(run);
+            size += run.size();
+        }
+
+        T peek(ToDoubleFunction<? super K> ranking) {
+            return bucket(ranking).runs.peek().peek();
+        }
+
+        T take(ToDoubleFunction<? super K> ranking) {
+            IRun<T> run = bucket(ranking).runs.peek();
+            T item = run.take();
+            size--;
+            if (run.size() == 0) {
+                bucket.runs.poll();
+            }
+            if (bucket.runs.isEmpty()) {
+                buckets.remove(bucket.key);
+                bucket = null;
+            }
+            return item;
+        }
+
+        private Bucket<K, T> bucket(ToDoubleFunction<? super K> ranking) {
+            // Stick with the current bucket until it is empty.
+            if (bucket != null) {
+                return bucket;
+            }
+
+            // Ranking every bucket whenever one runs dry would rank them all once per bucket. Instead,
+            // they are all ranked once per ranking function, which is set once per tick, and buckets
+            // added since are ranked as they come in.
+            if (rankedBy != ranking) {
+                rankedBy = ranking;
+                ranked.clear();
+                unranked.clear();
+                unranked.addAll(buckets.values());
+            }
+            for (Bucket<K, T> b : unranked) {
+                b.rank = ranking.applyAsDouble(b.key);
+                ranked.add(b);
+            }
+            unranked.clear();
+
+            // Continue with the lowest ranked bucket. On a tie, the oldest one goes first.
+            bucket = ranked.poll();
+            return bucket;
+        }
+    }
+
+    private static final class Bucket<K, T> implements Comparable<Bucket<K, T>> {
+
+        private final K key;
+        private final long order;
+        private final ArrayDeque<IRun<T>> runs;
+        private double rank;
+
+        Bucket(final K key, final long order) {
+            this.key = key;
+            this.order = order;
+            this.runs = new ArrayDeque<>();
+            this.rank = 0;
+        }
+
+        @Override
+        public int compareTo(Bucket<K, T> other) {
+            int c = Double.compare(rank, other.rank);
+            return c != 0 ? c : Long.compare(order, other.order);
+        }
+    }
+
+    /**
+     * One or more items that are queued together, and taken one at a time.
+     * @param <T> The type of the items
+     */
+    interface IRun<T> {
+
+        /**
+         * Gets the next item, without taking it. Until it is taken, this returns the same item every time.
+         * @return The next item
+         */
+        T peek();
+
+        /**
+         * Takes the next item.
+         * @return The item
+         */
+        T take();
+
+        /**
+         * Gets the amount of items that have not been taken yet.
+         * @return The amount of items
+         */
+        int size();
+    }
+}
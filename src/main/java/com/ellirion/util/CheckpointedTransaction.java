@@ -0,0 +1,376 @@
+package com.ellirion.util;
+
+import lombok.Getter;
+import net.minecraft.server.v1_12_R1.NBTCompressedStreamTools;
+import net.minecraft.server.v1_12_R1.NBTTagCompound;
+import com.ellirion.util.async.IPromiseFinisher;
+import com.ellirion.util.async.Promise;
+import com.ellirion.util.async.PromiseState;
+import com.ellirion.util.model.BoundingBox;
+import com.ellirion.util.transact.Transaction;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A Transaction that applies the changes in a {@link BlockChangeJournal} in segments of {@code interval}
+ * changes, and keeps a checkpoint file of its progress. The file holds the journal itself, followed by a
+ * record for every segment that was prepared, applied or reverted.
+ * <p>
+ * Before a segment is applied, the current state of its blocks is written to the file, so whatever happens
+ * while the segment is being applied, its changes can always be undone. After a restart, {@link #resume}
+ * reads the file back, after which the Transaction can either be applied further from the last checkpoint,
+ * or be rolled back from there.
+ */
+public class CheckpointedTransaction extends Transaction {
+
+    private static final int MAGIC = 0x454C434B;
+    private static final int VERSION = 1;
+
+    private static final byte PREPARED = 1;
+    private static final byte APPLIED = 2;
+    private static final byte REVERTED = 3;
+
+    @Getter private BlockChangeJournal journal;
+    @Getter private Path file;
+    @Getter private int interval;
+    @Getter private BlockChangePriority priority;
+    @Getter private Object submitter;
+    @Getter private boolean physics;
+    private BoundingBox footprint;
+
+    // The changes up to prepared have their 'before' state on disk, the changes up to done have been applied.
+    private volatile int prepared;
+    private volatile int done;
+
+    /**
+     * Construct a CheckpointedTransaction that applies the changes in {@code journal},
+     * writing a checkpoint to {@code file} after every {@code interval} changes.
+     * @param journal The journal of changes to apply
+     * @param file The file to keep the checkpoints in
+     * @param interval The amount of changes between checkpoints
+     */
+    public CheckpointedTransaction(final BlockChangeJournal journal, final Path file, final int interval) {
+        this(journal, file, interval, BlockChangePriority.NORMAL, null, true);
+    }
+
+    /**
+     * Construct a CheckpointedTransaction that applies the changes in {@code journal} with the given
+     * {@code priority} on behalf of {@code submitter}, writing a checkpoint to {@code file} after every
+     * {@code interval} changes. Any existing {@code file} is overwritten.
+     * @param journal The journal of changes to apply
+     * @param file The file to keep the checkpoints in
+     * @param interval The amount of changes between checkpoints
+     * @param priority The priority with which the changes are applied
+     * @param submitter Whoever makes the changes
+     * @param physics Whether to apply physics per block, or write the blocks straight into
+     * the chunks and recalculate their lighting once per chunk
+     */
+    public CheckpointedTransaction(final BlockChangeJournal journal, final Path file, final int interval,
+                                   final BlockChangePriority priority, final Object submitter, final boolean physics) {
+        this(journal, file, interval, priority, submitter, physics, 0, 0);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(4 + 4 + 4);
+            header.putInt(MAGIC).putInt(VERSION).putInt(interval);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            journal.write(channel);
+            channel.force(true);
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not create checkpoint " + file, ex);
+        }
+    }
+
+    private CheckpointedTransaction(final BlockChangeJournal journal, final Path file, final int interval,
+                                    final BlockChangePriority priority, final Object submitter, final boolean physics,
+                                    final int prepared, final int done) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("The checkpoint interval must be positive");
+        }
+        this.journal = journal;
+        this.file = file;
+        this.interval = interval;
+        this.priority = priority;
+        this.submitter = submitter;
+        this.physics = physics;
+        this.prepared = prepared;
+        this.done = done;
+    }
+
+    /**
+     * Read back the CheckpointedTransaction that keeps its checkpoints in {@code file}. Any record
+     * that was not completely written, such as the last one before a crash, is discarded. The
+     * Transaction is applied if all its changes had been applied, and not applied otherwise.
+     * @param file The file the checkpoints are kept in
+     * @param priority The priority with which the changes are applied
+     * @param submitter Whoever makes the changes
+     * @param physics Whether to apply physics per block, or write the blocks straight into
+     * the chunks and recalculate their lighting once per chunk
+     * @return The CheckpointedTransaction
+     */
+    public static CheckpointedTransaction resume(Path file, BlockChangePriority priority, Object submitter,
+                                                 boolean physics) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(4 + 4 + 4);
+            if (!read(channel, header) || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IllegalArgumentException(file + " is not a checkpoint file");
+            }
+            int interval = header.getInt();
+            BlockChangeJournal journal = BlockChangeJournal.read(channel);
+
+            int prepared = 0;
+            int done = 0;
+            long valid = channel.position();
+            ByteBuffer head = ByteBuffer.allocate(4 + 4);
+            while (read(channel, head)) {
+                int length = head.getInt();
+                long checksum = head.getInt() & 0xFFFFFFFFL;
+                if (length <= 0 || length > channel.size() - channel.position()) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                if (!read(channel, payload) || checksum(payload.array()) != checksum) {
+                    break;
+                }
+
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload.array()));
+                byte kind = in.readByte();
+                if (kind == PREPARED) {
+                    int from = in.readInt();
+                    int to = in.readInt();
+                    for (int i = from; i < to; i++) {
+                        int typeId = in.readShort();
+                        byte data = in.readByte();
+                        int nbtLength = in.readInt();
+                        NBTTagCompound nbt = null;
+                        if (nbtLength >= 0) {
+                            byte[] blob = new byte[nbtLength];
+                            in.readFully(blob);
+                            nbt = NBTCompressedStreamTools.a(new ByteArrayInputStream(blob));
+                        }
+                        journal.setBefore(i, typeId, data, nbt);
+                    }
+                    prepared = to;
+                } else if (kind == APPLIED) {
+                    done = in.readInt();
+                } else if (kind == REVERTED) {
+                    prepared = in.readInt();
+                    done = Math.min(done, prepared);
+                } else {
+                    break;
+                }
+                valid = channel.position();
+            }
+
+            // Drop whatever was left of a record we were writing when we stopped.
+            channel.truncate(valid);
+
+            CheckpointedTransaction transaction = new CheckpointedTransaction(journal, file, interval, priority,
+                                                                              submitter, physics, prepared, done);
+            if (journal.size() > 0 && done == journal.size()) {
+                transaction.setApplied(true);
+            }
+            return transaction;
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not read checkpoint " + file, ex);
+        }
+    }
+
+    /**
+     * Gets the amount of changes that have been applied so far.
+     * @return The amount of changes
+     */
+    public int getProgress() {
+        return done;
+    }
+
+    /**
+     * Undo every change that has been applied so far, whether or not this Transaction has been
+     * applied completely. This is how a Transaction that was interrupted halfway is cleaned up.
+     * @return A Promise that resolves once all changes have been reverted
+     */
+    public Promise<Boolean> rollback() {
+        // Wait for whatever we are doing to finish without blocking, since it might need this thread.
+        // We may not be marked as applied, so we revert without checking, under the same lock as apply().
+        return whenSettled().thenCompose(settled -> forceRevert(), true);
+    }
+
+    @Override
+    public BoundingBox getFootprint() {
+        if (footprint == null) {
+            footprint = journal.getBounds();
+        }
+        return footprint;
+    }
+
+    @Override
+    protected Promise<Boolean> applier() {
+        return new Promise<>(this::applyFrom, true);
+    }
+
+    @Override
+    protected Promise<Boolean> reverter() {
+        return new Promise<>(this::revertFrom, true);
+    }
+
+    private void applyFrom(IPromiseFinisher<Boolean> finisher) {
+        int from = done;
+        if (from >= journal.size()) {
+            finisher.resolve(true);
+            return;
+        }
+
+        int to = Math.min(from + interval, journal.size());
+        if (prepared >= to) {
+            // We got this far before we were interrupted, and already know what to undo.
+            applySegment(finisher, from, to);
+            return;
+        }
+
+        Promise<Boolean> recorded = WorldHelper.recordBefore(journal, from, to);
+        whenFinished(recorded, finisher, () -> {
+            if (recorded.getState() == PromiseState.REJECTED) {
+                finisher.reject(recorded.getException());
+                return;
+            }
+            try {
+                checkpoint(prepared(from, to));
+            } catch (Exception ex) {
+                finisher.reject(ex);
+                return;
+            }
+            prepared = to;
+            applySegment(finisher, from, to);
+        });
+    }
+
+    private void applySegment(IPromiseFinisher<Boolean> finisher, int from, int to) {
+        // Applying the segment records the 'before' states again. If we were interrupted while
+        // applying it earlier, some blocks are already changed, so we keep the states on disk instead.
+        int[] typeIds = new int[to - from];
+        byte[] data = new byte[to - from];
+        NBTTagCompound[] nbt = new NBTTagCompound[to - from];
+        for (int i = from; i < to; i++) {
+            typeIds[i - from] = journal.getTypeId(i, false);
+            data[i - from] = journal.getData(i, false);
+            nbt[i - from] = journal.getNbt(i, false);
+        }
+
+        Promise<Boolean> segment = WorldHelper.replay(journal, from, to, true, priority, submitter, physics);
+        whenFinished(segment, finisher, () -> {
+            for (int i = from; i < to; i++) {
+                journal.setBefore(i, typeIds[i - from], data[i - from], nbt[i - from]);
+            }
+            if (segment.getState() == PromiseState.REJECTED) {
+                finisher.reject(segment.getException());
+                return;
+            }
+            try {
+                checkpoint(single(APPLIED, to));
+            } catch (Exception ex) {
+                finisher.reject(ex);
+                return;
+            }
+            done = to;
+            applyFrom(finisher);
+        });
+    }
+
+    private void revertFrom(IPromiseFinisher<Boolean> finisher) {
+        // Everything that was prepared may have been (partially) applied, so that is where we start.
+        int to = prepared;
+        if (to == 0) {
+            finisher.resolve(true);
+            return;
+        }
+
+        int from = (to - 1) / interval * interval;
+        Promise<Boolean> segment = WorldHelper.replay(journal, from, to, false, priority, submitter, physics);
+        whenFinished(segment, finisher, () -> {
+            if (segment.getState() == PromiseState.REJECTED) {
+                finisher.reject(segment.getException());
+                return;
+            }
+            try {
+                checkpoint(single(REVERTED, from));
+            } catch (Exception ex) {
+                finisher.reject(ex);
+                return;
+            }
+            prepared = from;
+            done = Math.min(done, from);
+            revertFrom(finisher);
+        });
+    }
+
+    private byte[] prepared(int from, int to) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(PREPARED);
+        out.writeInt(from);
+        out.writeInt(to);
+        for (int i = from; i < to; i++) {
+            out.writeShort(journal.getTypeId(i, false));
+            out.writeByte(journal.getData(i, false));
+            NBTTagCompound nbt = journal.getNbt(i, false);
+            if (nbt == null) {
+                out.writeInt(-1);
+                continue;
+            }
+            ByteArrayOutputStream blob = new ByteArrayOutputStream();
+            NBTCompressedStreamTools.a(nbt, blob);
+            out.writeInt(blob.size());
+            blob.writeTo(out);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] single(byte kind, int index) {
+        return ByteBuffer.allocate(1 + 4).put(kind).putInt(index).array();
+    }
+
+    private synchronized void checkpoint(byte[] payload) {
+        ByteBuffer record = ByteBuffer.allocate(4 + 4 + payload.length);
+        record.putInt(payload.length).putInt((int) checksum(payload)).put(payload);
+        record.flip();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            channel.force(false);
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not write checkpoint " + file, ex);
+        }
+    }
+
+    private static long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
+    private static boolean read(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+}
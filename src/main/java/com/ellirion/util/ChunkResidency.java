@@ -0,0 +1,202 @@
+package com.ellirion.util;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps track of which chunks have been accessed recently. Chunks are identified by a single long
+ * made up of the world and the chunk coordinates, so no references to Chunks or Worlds are kept.
+ * Chunks that were loaded by us are unloaded again once they have not been accessed for a while.
+ * All methods may be called from any thread, except {@link #expire()}.
+ */
+public class ChunkResidency {
+
+    private static final int COORD_BITS = 22;
+    private static final long COORD_MASK = (1L << COORD_BITS) - 1;
+    private static final int WORLD_BITS = 64 - 2 * COORD_BITS;
+    private static final long SWEEP_INTERVAL = 1000;
+    // A chunk is only marked again once this fraction of the window has passed since it was last marked.
+    private static final int REFRESH_FRACTION = 4;
+
+    private final long window;
+    private final Map<Long, Residency> chunks;
+    private final List<UUID> worlds;
+    private long lastSweep;
+
+    /**
+     * Construct a ChunkResidency in which chunks stay active for {@code window} milliseconds after
+     * they have been accessed. Repeated accesses only extend that once every quarter of the window.
+     * @param window The time in milliseconds a chunk stays active
+     */
+    public ChunkResidency(final long window) {
+        this.window = window;
+        this.chunks = new ConcurrentHashMap<>();
+        this.worlds = new CopyOnWriteArrayList<>();
+        this.lastSweep = 0;
+    }
+
+    /**
+     * Marks the given Chunk as active.
+     * @param c The Chunk to mark as active
+     */
+    public void markActive(Chunk c) {
+        mark(c.getWorld(), c.getX(), c.getZ(), false);
+    }
+
+    /**
+     * Marks the chunk at ({@code chunkX}, {@code chunkZ}) as active. Unlike {@link #markActive(Chunk)},
+     * this does not need the Chunk itself, so it is safe to use for chunks that may not be loaded.
+     * @param world The World of the chunk
+     * @param chunkX The X coordinate of the chunk
+     * @param chunkZ The Z coordinate of the chunk
+     */
+    public void markActive(World world, int chunkX, int chunkZ) {
+        mark(world, chunkX, chunkZ, false);
+    }
+
+    /**
+     * Marks the given Chunk as active, and as loaded by us. The Chunk is unloaded again once it expires.
+     * @param c The Chunk that was loaded
+     */
+    public void markLoaded(Chunk c) {
+        mark(c.getWorld(), c.getX(), c.getZ(), true);
+    }
+
+    /**
+     * Marks the given Chunk as inactive. It will not be unloaded by us anymore.
+     * @param c The Chunk to mark as inactive
+     */
+    public void markInactive(Chunk c) {
+        chunks.remove(key(c.getWorld(), c.getX(), c.getZ()));
+    }
+
+    /**
+     * Check if the Chunk {@code c} is marked 'active' (has been accessed recently).
+     * @param c The Chunk to check
+     * @return Whether this Chunk is marked active or not
+     */
+    public boolean isActive(Chunk c) {
+        return isActive(c.getWorld(), c.getX(), c.getZ());
+    }
+
+    /**
+     * Check if the chunk at ({@code chunkX}, {@code chunkZ}) is marked 'active' (has been accessed recently).
+     * @param world The World of the chunk
+     * @param chunkX The X coordinate of the chunk
+     * @param chunkZ The Z coordinate of the chunk
+     * @return Whether this chunk is marked active or not
+     */
+    public boolean isActive(World world, int chunkX, int chunkZ) {
+        Residency r = chunks.get(key(world, chunkX, chunkZ));
+        return r != null && System.currentTimeMillis() - r.lastActive < window;
+    }
+
+    /**
+     * Gets the amount of chunks that are being tracked.
+     * @return The amount of chunks
+     */
+    public int size() {
+        return chunks.size();
+    }
+
+    /**
+     * Forget about all chunks that are no longer active, and unload the ones we loaded if
+     * no player is using them. This only does any work once per second, so it can be invoked
+     * every tick. Must be invoked from the main thread.
+     * @return The amount of chunks that were unloaded
+     */
+    public int expire() {
+        long now = System.currentTimeMillis();
+        if (now - lastSweep < SWEEP_INTERVAL) {
+            return 0;
+        }
+        lastSweep = now;
+
+        int unloaded = 0;
+        Iterator<Map.Entry<Long, Residency>> iter = chunks.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Long, Residency> entry = iter.next();
+            Residency r = entry.getValue();
+            if (now - r.lastActive < window) {
+                continue;
+            }
+
+            // Only forget about it if nobody marked it active in the meantime.
+            if (!chunks.remove(entry.getKey(), r) || !r.loaded) {
+                continue;
+            }
+
+            long key = entry.getKey();
+            World world = Bukkit.getWorld(worlds.get((int) (key >>> (2 * COORD_BITS))));
+            int chunkX = coord(key >>> COORD_BITS);
+            int chunkZ = coord(key);
+            if (world != null && world.isChunkLoaded(chunkX, chunkZ) && !world.isChunkInUse(chunkX, chunkZ)) {
+                world.unloadChunkRequest(chunkX, chunkZ);
+                unloaded++;
+            }
+        }
+        return unloaded;
+    }
+
+    private void mark(World world, int chunkX, int chunkZ, boolean loaded) {
+        // Chunks are marked for every block that is read from them, so a chunk that was marked
+        // recently enough is left alone. This only costs a lookup, without a write or an allocation.
+        long now = System.currentTimeMillis();
+        long key = key(world, chunkX, chunkZ);
+        Residency current = chunks.get(key);
+        if (current != null && (current.loaded || !loaded) && now - current.lastActive < window / REFRESH_FRACTION) {
+            return;
+        }
+        chunks.merge(key, new Residency(now, loaded),
+                     (old, r) -> new Residency(now, old.loaded || loaded));
+    }
+
+    private long key(World world, int chunkX, int chunkZ) {
+        return ((long) worldIndex(world) << (2 * COORD_BITS)) |
+               ((chunkX & COORD_MASK) << COORD_BITS) |
+               (chunkZ & COORD_MASK);
+    }
+
+    private int worldIndex(World world) {
+        UUID id = world.getUID();
+        int index = worlds.indexOf(id);
+        if (index >= 0) {
+            return index;
+        }
+        synchronized (worlds) {
+            index = worlds.indexOf(id);
+            if (index < 0) {
+                if (worlds.size() == 1 << WORLD_BITS) {
+                    throw new IllegalStateException("Too many worlds to keep track of");
+                }
+                worlds.add(id);
+                index = worlds.size() - 1;
+            }
+            return index;
+        }
+    }
+
+    private static int coord(long bits) {
+        // Sign-extend the coordinate back from its 22 bits.
+        return (int) ((bits & COORD_MASK) << (64 - COORD_BITS) >> (64 - COORD_BITS));
+    }
+
+    private static final class Residency {
+
+        private final long lastActive;
+        private final boolean loaded;
+
+        Residency(final long lastActive, final boolean loaded) {
+            this.lastActive = lastActive;
+            this.loaded = loaded;
+        }
+    }
+}
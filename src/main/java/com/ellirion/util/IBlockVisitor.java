@@ -0,0 +1,15 @@
+package com.ellirion.util;
+
+@FunctionalInterface
+public interface IBlockVisitor {
+
+    /**
+     * A function that is invoked for a block in a {@link RegionSnapshot}.
+     * @param x The X coordinate of the block
+     * @param y The Y coordinate of the block
+     * @param z The Z coordinate of the block
+     * @param typeId The material id of the block
+     * @param data The metadata of the block
+     */
+    void visit(int x, int y, int z, int typeId, byte data);
+}
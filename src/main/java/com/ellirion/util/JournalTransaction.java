@@ -0,0 +1,117 @@
+package com.ellirion.util;
+
+import lombok.Getter;
+import com.ellirion.util.async.Promise;
+import com.ellirion.util.async.PromiseState;
+import com.ellirion.util.model.BoundingBox;
+import com.ellirion.util.transact.Transaction;
+
+public class JournalTransaction extends Transaction {
+
+    private Promise<BlockChangeJournal> journal;
+    private BoundingBox footprint;
+    @Getter private BlockChangePriority priority;
+    @Getter private Object submitter;
+    @Getter private boolean physics;
+
+    /**
+     * Construct a JournalTransaction that applies the changes in {@code journal}.
+     * @param journal The journal of changes to apply
+     */
+    public JournalTransaction(final BlockChangeJournal journal) {
+        this(journal, BlockChangePriority.NORMAL, null);
+    }
+
+    /**
+     * Construct a JournalTransaction that applies the changes in {@code journal}
+     * with the given {@code priority} on behalf of {@code submitter}.
+     * @param journal The journal of changes to apply
+     * @param priority The priority with which the changes are applied
+     * @param submitter Whoever makes the changes
+     */
+    public JournalTransaction(final BlockChangeJournal journal, final BlockChangePriority priority,
+                              final Object submitter) {
+        this(Promise.resolve(journal), null, priority, submitter, true);
+    }
+
+    /**
+     * Construct a JournalTransaction that applies the changes in {@code journal}
+     * with the given {@code priority} on behalf of {@code submitter}, specifying
+     * if this JournalTransaction is applied or not.
+     * @param applied Whether this JournalTransaction is applied or not
+     * @param journal The journal of changes to apply
+     * @param priority The priority with which the changes are applied
+     * @param submitter Whoever makes the changes
+     */
+    public JournalTransaction(final boolean applied, final BlockChangeJournal journal,
+                              final BlockChangePriority priority, final Object submitter) {
+        this(applied, journal, priority, submitter, true);
+    }
+
+    /**
+     * Construct a JournalTransaction that applies the changes in {@code journal}
+     * with the given {@code priority} on behalf of {@code submitter}, specifying
+     * if this JournalTransaction is applied or not.
+     * @param applied Whether this JournalTransaction is applied or not
+     * @param journal The journal of changes to apply
+     * @param priority The priority with which the changes are applied
+     * @param submitter Whoever makes the changes
+     * @param physics Whether to apply physics per block, or write the blocks straight into
+     * the chunks and recalculate their lighting once per chunk
+     */
+    public JournalTransaction(final boolean applied, final BlockChangeJournal journal,
+                              final BlockChangePriority priority, final Object submitter, final boolean physics) {
+        this(Promise.resolve(journal), null, priority, submitter, physics);
+        setApplied(applied);
+    }
+
+    /**
+     * Construct a JournalTransaction that applies the changes in the journal {@code journal}
+     * resolves with, with the given {@code priority} on behalf of {@code submitter}. This allows
+     * the journal to be built asynchronously, while the Transaction can already be applied.
+     * @param journal The Promise of the journal of changes to apply
+     * @param footprint The region the journal changes, or null to work it out from the journal
+     * @param priority The priority with which the changes are applied
+     * @param submitter Whoever makes the changes
+     * @param physics Whether to apply physics per block, or write the blocks straight into
+     * the chunks and recalculate their lighting once per chunk
+     */
+    public JournalTransaction(final Promise<BlockChangeJournal> journal, final BoundingBox footprint,
+                              final BlockChangePriority priority, final Object submitter, final boolean physics) {
+        this.journal = journal;
+        this.footprint = footprint;
+        this.priority = priority;
+        this.submitter = submitter;
+        this.physics = physics;
+    }
+
+    /**
+     * Gets the journal of changes this Transaction applies.
+     * @return The journal, or null if it is still being built
+     */
+    public BlockChangeJournal getJournal() {
+        return journal.getResult();
+    }
+
+    @Override
+    public BoundingBox getFootprint() {
+        if (footprint == null && journal.getState() == PromiseState.RESOLVED) {
+            footprint = journal.getResult().getBounds();
+        }
+        return footprint;
+    }
+
+    @Override
+    protected Promise<Boolean> applier() {
+        if (journal.getState() == PromiseState.RESOLVED) {
+            return WorldHelper.replay(journal.getResult(), true, priority, submitter, physics);
+        }
+        return journal.thenCompose(j -> WorldHelper.replay(j, true, priority, submitter, physics), true);
+    }
+
+    @Override
+    protected Promise<Boolean> reverter() {
+        // We can only be reverted after being applied, so the journal is done by now.
+        return WorldHelper.replay(journal.getResult(), false, priority, submitter, physics);
+    }
+}
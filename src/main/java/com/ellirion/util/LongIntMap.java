@@ -0,0 +1,98 @@
+package com.ellirion.util;
+
+/**
+ * A map from longs to ints that keeps its keys and values in plain arrays, rather than boxing every
+ * entry. Collisions are resolved by probing the next slots, and the arrays double in size once they
+ * are half full. Entries can not be removed.
+ */
+final class LongIntMap {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final int missing;
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+
+    /**
+     * Construct an empty LongIntMap.
+     * @param missing The value that is returned for keys that are not in the map
+     */
+    LongIntMap(final int missing) {
+        this.missing = missing;
+        this.keys = new long[MIN_CAPACITY];
+        this.values = new int[MIN_CAPACITY];
+        this.used = new boolean[MIN_CAPACITY];
+        this.size = 0;
+    }
+
+    /**
+     * Gets the value of {@code key}.
+     * @param key The key to look up
+     * @return The value of {@code key}, or the missing value if it is not in the map
+     */
+    int get(long key) {
+        int slot = find(key);
+        return used[slot] ? values[slot] : missing;
+    }
+
+    /**
+     * Sets the value of {@code key} to {@code value}.
+     * @param key The key to set
+     * @param value The value to set it to
+     */
+    void put(long key, int value) {
+        int slot = find(key);
+        if (!used[slot]) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+                slot = find(key);
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+    }
+
+    /**
+     * Gets the amount of keys in the map.
+     * @return The amount of keys
+     */
+    int size() {
+        return size;
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = find(oldKeys[i]);
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        // Packed block positions differ mostly in their low bits, so spread them over the whole hash.
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,269 @@
+package com.ellirion.util;
+
+import lombok.Getter;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+import com.ellirion.util.async.Promise;
+import com.ellirion.util.model.BoundingBox;
+import com.ellirion.util.model.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A read-only copy of the blocks in a region of a World. It is backed by primitive arrays, so it
+ * can be read from any thread, by any amount of threads at once, without involving the main thread.
+ */
+public class RegionSnapshot {
+
+    // The amount of blocks a single fork-join task scans before it stops splitting.
+    private static final int SCAN_THRESHOLD = 1 << 14;
+    private static final int WORLD_HEIGHT = 256;
+
+    @Getter private final BoundingBox bounds;
+    private final int width;
+    private final int height;
+    private final int depth;
+    private final short[] typeIds;
+    private final byte[] data;
+
+    private RegionSnapshot(final BoundingBox bounds, final List<ChunkSnapshot> chunks) {
+        this.bounds = bounds;
+        this.width = bounds.getWidth();
+        this.height = bounds.getHeight();
+        this.depth = bounds.getDepth();
+        this.typeIds = new short[width * height * depth];
+        this.data = new byte[typeIds.length];
+
+        // Every chunk covers its own part of the arrays, so they can be copied in parallel.
+        chunks.parallelStream().forEach(this::copy);
+    }
+
+    /**
+     * Capture the blocks within {@code box} in {@code world}. All chunks the region overlaps are loaded
+     * and captured in a single task on the main thread. They are then copied into the snapshot asynchronously.
+     * @param world The World to capture the blocks from
+     * @param box The region to capture
+     * @return A Promise that resolves with the RegionSnapshot
+     */
+    public static Promise<RegionSnapshot> capture(World world, BoundingBox box) {
+        return new Promise<List<ChunkSnapshot>>(finisher -> {
+            List<ChunkSnapshot> chunks = new ArrayList<>();
+            for (int chunkX = box.getX1() >> 4; chunkX <= box.getX2() >> 4; chunkX++) {
+                for (int chunkZ = box.getZ1() >> 4; chunkZ <= box.getZ2() >> 4; chunkZ++) {
+                    chunks.add(WorldHelper.loadChunk(world, chunkX, chunkZ).getChunkSnapshot(false, false, false));
+                }
+            }
+            finisher.resolve(chunks);
+        }, false).then(chunks -> {
+            return new RegionSnapshot(box, chunks);
+        }, true);
+    }
+
+    private void copy(ChunkSnapshot chunk) {
+        int cx = chunk.getX() << 4;
+        int cz = chunk.getZ() << 4;
+        int fromX = Math.max(bounds.getX1(), cx);
+        int toX = Math.min(bounds.getX2(), cx + 15);
+        int fromZ = Math.max(bounds.getZ1(), cz);
+        int toZ = Math.min(bounds.getZ2(), cz + 15);
+        int fromY = Math.max(bounds.getY1(), 0);
+        int toY = Math.min(bounds.getY2(), WORLD_HEIGHT - 1);
+
+        // Anything outside of the world stays air.
+        for (int y = fromY; y <= toY; y++) {
+            for (int z = fromZ; z <= toZ; z++) {
+                int i = index(fromX, y, z);
+                for (int x = fromX; x <= toX; x++, i++) {
+                    typeIds[i] = (short) chunk.getBlockTypeId(x & 15, y, z & 15);
+                    data[i] = (byte) chunk.getBlockData(x & 15, y, z & 15);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the material id of the block at the given world coordinates.
+     * @param x The X coordinate of the block
+     * @param y The Y coordinate of the block
+     * @param z The Z coordinate of the block
+     * @return The material id
+     * @throws IndexOutOfBoundsException when the block is not part of this snapshot
+     */
+    public int getTypeId(int x, int y, int z) {
+        return typeIds[checkedIndex(x, y, z)];
+    }
+
+    /**
+     * Gets the Material of the block at the given world coordinates.
+     * @param x The X coordinate of the block
+     * @param y The Y coordinate of the block
+     * @param z The Z coordinate of the block
+     * @return The Material
+     * @throws IndexOutOfBoundsException when the block is not part of this snapshot
+     */
+    public Material getMaterial(int x, int y, int z) {
+        return Material.getMaterial(getTypeId(x, y, z));
+    }
+
+    /**
+     * Gets the metadata of the block at the given world coordinates.
+     * @param x The X coordinate of the block
+     * @param y The Y coordinate of the block
+     * @param z The Z coordinate of the block
+     * @return The metadata
+     * @throws IndexOutOfBoundsException when the block is not part of this snapshot
+     */
+    public byte getData(int x, int y, int z) {
+        return data[checkedIndex(x, y, z)];
+    }
+
+    /**
+     * Invoke {@code visitor} for every block in this snapshot. The blocks are visited in parallel,
+     * in no particular order, so {@code visitor} must be thread-safe.
+     * @param visitor The visitor to invoke
+     */
+    public void forEach(IBlockVisitor visitor) {
+        new VisitTask(visitor, 0, typeIds.length).invoke();
+    }
+
+    /**
+     * Count the blocks in this snapshot that pass {@code predicate}. The blocks are tested
+     * in parallel, so {@code predicate} must be thread-safe.
+     * @param predicate The predicate to test
+     * @return The amount of blocks that passed
+     */
+    public long count(IBlockPredicate predicate) {
+        return new CountTask(predicate, 0, typeIds.length).invoke();
+    }
+
+    /**
+     * Find all blocks in this snapshot that pass {@code predicate}. The blocks are tested
+     * in parallel, so {@code predicate} must be thread-safe.
+     * @param predicate The predicate to test
+     * @return The Points of all blocks that passed, in world coordinates
+     */
+    public List<Point> findAll(IBlockPredicate predicate) {
+        return new FindTask(predicate, 0, typeIds.length).invoke();
+    }
+
+    private int index(int x, int y, int z) {
+        return ((y - bounds.getY1()) * depth + (z - bounds.getZ1())) * width + (x - bounds.getX1());
+    }
+
+    private int checkedIndex(int x, int y, int z) {
+        if (x < bounds.getX1() || x > bounds.getX2() ||
+            y < bounds.getY1() || y > bounds.getY2() ||
+            z < bounds.getZ1() || z > bounds.getZ2()) {
+            throw new IndexOutOfBoundsException("(" + x + ", " + y + ", " + z + ") is outside of " + bounds);
+        }
+        return index(x, y, z);
+    }
+
+    private void scan(int from, int to, IBlockVisitor visitor) {
+        // Walk the coordinates along with the index rather than dividing for every block.
+        int x = from % width;
+        int z = (from / width) % depth;
+        int y = from / width / depth;
+        for (int i = from; i < to; i++) {
+            visitor.visit(bounds.getX1() + x, bounds.getY1() + y, bounds.getZ1() + z, typeIds[i], data[i]);
+            if (++x == width) {
+                x = 0;
+                if (++z == depth) {
+                    z = 0;
+                    y++;
+                }
+            }
+        }
+    }
+
+    private class VisitTask extends RecursiveAction {
+
+        private final IBlockVisitor visitor;
+        private final int from;
+        private final int to;
+
+        VisitTask(final IBlockVisitor visitor, final int from, final int to) {
+            this.visitor = visitor;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SCAN_THRESHOLD) {
+                scan(from, to, visitor);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new VisitTask(visitor, from, mid), new VisitTask(visitor, mid, to));
+        }
+    }
+
+    private class CountTask extends RecursiveTask<Long> {
+
+        private final IBlockPredicate predicate;
+        private final int from;
+        private final int to;
+
+        CountTask(final IBlockPredicate predicate, final int from, final int to) {
+            this.predicate = predicate;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from <= SCAN_THRESHOLD) {
+                long[] count = new long[1];
+                scan(from, to, (x, y, z, typeId, data) -> {
+                    if (predicate.test(x, y, z, typeId, data)) {
+                        count[0]++;
+                    }
+                });
+                return count[0];
+            }
+            int mid = (from + to) >>> 1;
+            CountTask left = new CountTask(predicate, from, mid);
+            left.fork();
+            long right = new CountTask(predicate, mid, to).compute();
+            return left.join() + right;
+        }
+    }
+
+    private class FindTask extends RecursiveTask<List<Point>> {
+
+        private final IBlockPredicate predicate;
+        private final int from;
+        private final int to;
+
+        FindTask(final IBlockPredicate predicate, final int from, final int to) {
+            this.predicate = predicate;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Point> compute() {
+            if (to - from <= SCAN_THRESHOLD) {
+                List<Point> found = new ArrayList<>();
+                scan(from, to, (x, y, z, typeId, data) -> {
+                    if (predicate.test(x, y, z, typeId, data)) {
+                        found.add(new Point(x, y, z));
+                    }
+                });
+                return found;
+            }
+            int mid = (from + to) >>> 1;
+            FindTask left = new FindTask(predicate, from, mid);
+            left.fork();
+            List<Point> right = new FindTask(predicate, mid, to).compute();
+            List<Point> found = left.join();
+            found.addAll(right);
+            return found;
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package com.ellirion.util;
+
+import lombok.Getter;
+import net.minecraft.server.v1_12_R1.NBTCompressedStreamTools;
+import net.minecraft.server.v1_12_R1.NBTTagCompound;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import com.ellirion.util.async.IPromiseFinisher;
+import com.ellirion.util.async.Promise;
+import com.ellirion.util.async.PromiseState;
+import com.ellirion.util.model.BoundingBox;
+import com.ellirion.util.model.Point;
+import com.ellirion.util.transact.Transaction;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The blocks of a region, stored in a file. Regions are exported and read one chunk at a time,
+ * so even very large regions only ever have a single chunk of blocks on the heap.
+ * <p>
+ * A schematic file starts with the bounds of the region as compressed NBT data. It is followed by
+ * one deflated segment per chunk the region overlaps, and ends with an index of the segments.
+ * The file is memory-mapped when opened, so segments are read straight from the page cache.
+ */
+public class Schematic {
+
+    private static final int MAGIC = 0x454C5343;
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 5 * 4;
+    private static final int TRAILER_SIZE = 8 + 4;
+    private static final int WORLD_HEIGHT = 256;
+
+    @Getter private final BoundingBox bounds;
+    @Getter private final int chunkCount;
+    private final MappedByteBuffer file;
+    private final long indexOffset;
+
+    private Schematic(final Path path, final MappedByteBuffer file) {
+        this.file = file;
+
+        if (file.capacity() < 12 + TRAILER_SIZE || file.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException(path + " is not a schematic");
+        }
+        if (file.getInt(4) != VERSION) {
+            throw new IllegalArgumentException(path + " has unsupported schematic version " + file.getInt(4));
+        }
+
+        byte[] header = new byte[file.getInt(8)];
+        ByteBuffer view = file.duplicate();
+        view.position(12);
+        view.get(header);
+        try {
+            bounds = BoundingBox.fromNBT(NBTCompressedStreamTools.a(new ByteArrayInputStream(header))
+                                                                 .getCompound("bounds"));
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not read the header of " + path, ex);
+        }
+
+        indexOffset = file.getLong(file.capacity() - TRAILER_SIZE);
+        chunkCount = file.getInt(file.capacity() - 4);
+    }
+
+    /**
+     * Export the blocks within {@code box} in {@code world} to {@code path}. The chunks are captured
+     * on the main thread one at a time, while the previous chunk is compressed and written asynchronously.
+     * Only the material and metadata of the blocks are exported, since snapshots don't include tile entity data.
+     * @param world The World to export the blocks from
+     * @param box The region to export
+     * @param path The file to write to. It is overwritten if it exists
+     * @return A Promise that resolves with the size of the file in bytes
+     */
+    public static Promise<Long> export(World world, BoundingBox box, Path path) {
+        // Every chunk that is captured starts writing it and capturing the next one. The body
+        // returns right away, so no thread is held while we wait on the main thread.
+        return new Promise<>(finisher -> {
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                           StandardOpenOption.TRUNCATE_EXISTING);
+            } catch (IOException ex) {
+                throw new RuntimeException("Could not write schematic " + path, ex);
+            }
+
+            Export export = new Export(world, box, path, channel, finisher);
+            try {
+                writeHeader(channel, box);
+            } catch (IOException ex) {
+                export.fail(new RuntimeException("Could not write schematic " + path, ex), null);
+                return;
+            }
+            export.writeFrom(0, capture(world, export.minX, export.minZ));
+        }, true);
+    }
+
+    /**
+     * Open the schematic at {@code path}.
+     * @param path The file to read from
+     * @return The Schematic
+     * @throws IllegalArgumentException when the file is not a schematic, or is larger than 2 GB
+     */
+    public static Schematic open(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(path + " is too large to be a schematic");
+            }
+            // The mapping stays valid after the channel is closed.
+            return new Schematic(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException ex) {
+            throw new RuntimeException("Could not open schematic " + path, ex);
+        }
+    }
+
+    /**
+     * Invoke {@code visitor} for every block in this schematic, in the coordinates it was exported from.
+     * The blocks are read sequentially, one chunk at a time.
+     * @param visitor The visitor to invoke
+     */
+    public void forEach(IBlockVisitor visitor) {
+        Inflater inflater = new Inflater();
+        try {
+            for (int n = 0; n < chunkCount; n++) {
+                readSegment(n, inflater).forEach(visitor);
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Paste this schematic in {@code world} so that its lowest corner ends up at {@code dst}.
+     * @param world The World to paste the blocks in
+     * @param dst The lowest corner of the destination
+     * @return A {@link SchematicTransaction} that has been applied
+     */
+    public Transaction paste(World world, Point dst) {
+        return paste(world, dst, BlockChangePriority.BULK, null, true);
+    }
+
+    /**
+     * Paste this schematic in {@code world} so that its lowest corner ends up at {@code dst}.
+     * @param world The World to paste the blocks in
+     * @param dst The lowest corner of the destination
+     * @param priority The priority with which the changes are applied
+     * @param submitter Whoever makes the changes. Changes of different submitters take turns
+     * @param physics Whether to apply physics per block, or write the blocks straight into
+     * the chunks and recalculate their lighting once per chunk
+     * @return A {@link SchematicTransaction} that has been applied
+     */
+    public Transaction paste(World world, Point dst, BlockChangePriority priority, Object submitter,
+                             boolean physics) {
+        Transaction t = new SchematicTransaction(this, world, dst, priority, submitter, physics);
+        t.apply();
+        return t;
+    }
+
+    /**
+     * Read segment {@code n} into a journal of changes that move it to {@code dst} in {@code world}.
+     * Blocks that would end up outside of the world are left out.
+     */
+    BlockChangeJournal toJournal(int n, Inflater inflater, World world, Point dst) {
+        int dx = dst.getBlockX() - bounds.getX1();
+        int dy = dst.getBlockY() - bounds.getY1();
+        int dz = dst.getBlockZ() - bounds.getZ1();
+
+        BlockChangeJournal journal = new BlockChangeJournal(world);
+        readSegment(n, inflater).forEach((x, y, z, typeId, data) -> {
+            if (y + dy >= 0 && y + dy < WORLD_HEIGHT) {
+                journal.add(x + dx, y + dy, z + dz, BlockChangeJournal.UNKNOWN, (byte) 0, null, typeId, data, null);
+            }
+        });
+        return journal;
+    }
+
+    private Segment readSegment(int n, Inflater inflater) {
+        if (n < 0 || n >= chunkCount) {
+            throw new IndexOutOfBoundsException("Segment " + n + " of " + chunkCount);
+        }
+        long start = file.getLong((int) indexOffset + n * 8);
+        long end = n + 1 < chunkCount ? file.getLong((int) indexOffset + (n + 1) * 8) : indexOffset;
+
+        ByteBuffer view = file.duplicate();
+        view.position((int) start);
+        Segment segment = new Segment(view.getInt(), bounds.getY1(), view.getInt(), view.getInt(), view.getInt());
+        byte[] raw = new byte[view.getInt()];
+        byte[] compressed = new byte[(int) (end - start) - SEGMENT_HEADER_SIZE];
+        view.get(compressed);
+
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            if (inflater.inflate(raw) != raw.length) {
+                throw new IllegalStateException("Segment " + n + " is truncated");
+            }
+        } catch (DataFormatException ex) {
+            throw new IllegalStateException("Segment " + n + " is corrupt", ex);
+        }
+        segment.raw = ByteBuffer.wrap(raw);
+        return segment;
+    }
+
+    private static Promise<ChunkSnapshot> capture(World world, int chunkX, int chunkZ) {
+        return new Promise<>(finisher -> {
+            finisher.resolve(WorldHelper.loadChunk(world, chunkX, chunkZ).getChunkSnapshot(false, false, false));
+        }, false);
+    }
+
+    private static void writeHeader(FileChannel channel, BoundingBox box) throws IOException {
+        NBTTagCompound root = new NBTTagCompound();
+        root.set("bounds", BoundingBox.toNBT(box));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NBTCompressedStreamTools.a(root, out);
+        byte[] header = out.toByteArray();
+
+        ByteBuffer buffer = ByteBuffer.allocate(12 + header.length);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(header.length).put(header);
+        buffer.flip();
+        writeFully(channel, buffer);
+    }
+
+    private static void writeTrailer(FileChannel channel, long[] index) throws IOException {
+        long offset = channel.position();
+        ByteBuffer buffer = ByteBuffer.allocate(index.length * 8 + TRAILER_SIZE);
+        for (long start : index) {
+            buffer.putLong(start);
+        }
+        buffer.putLong(offset).putInt(index.length);
+        buffer.flip();
+        writeFully(channel, buffer);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static class Segment {
+
+        private final int x1;
+        private final int y1;
+        private final int z1;
+        private final int width;
+        private final int depth;
+        private ByteBuffer raw;
+
+        Segment(final int x1, final int y1, final int z1, final int width, final int depth) {
+            this.x1 = x1;
+            this.y1 = y1;
+            this.z1 = z1;
+            this.width = width;
+            this.depth = depth;
+        }
+
+        void forEach(IBlockVisitor visitor) {
+            // All material ids come first, followed by all metadata, since that compresses better.
+            int blocks = raw.capacity() / 3;
+            int height = blocks / (width * depth);
+            int i = 0;
+            for (int y = 0; y < height; y++) {
+                for (int z = 0; z < depth; z++) {
+                    for (int x = 0; x < width; x++, i++) {
+                        visitor.visit(x1 + x, y1 + y, z1 + z, raw.getShort(i * 2), raw.get(blocks * 2 + i));
+                    }
+                }
+            }
+        }
+    }
+
+    private static class SegmentWriter {
+
+        private final BoundingBox box;
+        private final Deflater deflater;
+        private final ByteBuffer raw;
+        private final byte[] compressed;
+        private final ByteBuffer header;
+
+        SegmentWriter(final BoundingBox box) {
+            this.box = box;
+            this.deflater = new Deflater();
+            this.raw = ByteBuffer.allocate(16 * 16 * box.getHeight() * 3);
+            this.compressed = new byte[1 << 16];
+            this.header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        }
+
+        void write(FileChannel channel, ChunkSnapshot chunk) throws IOException {
+            int fromX = Math.max(box.getX1(), chunk.getX() << 4);
+            int toX = Math.min(box.getX2(), (chunk.getX() << 4) + 15);
+            int fromZ = Math.max(box.getZ1(), chunk.getZ() << 4);
+            int toZ = Math.min(box.getZ2(), (chunk.getZ() << 4) + 15);
+            int width = toX - fromX + 1;
+            int depth = toZ - fromZ + 1;
+            int blocks = width * depth * box.getHeight();
+
+            // Anything outside of the world is stored as air.
+            raw.clear();
+            int i = 0;
+            for (int y = box.getY1(); y <= box.getY2(); y++) {
+                boolean inWorld = y >= 0 && y < WORLD_HEIGHT;
+                for (int z = fromZ; z <= toZ; z++) {
+                    for (int x = fromX; x <= toX; x++, i++) {
+                        raw.putShort(i * 2, inWorld ? (short) chunk.getBlockTypeId(x & 15, y, z & 15) : 0);
+                        raw.put(blocks * 2 + i, inWorld ? (byte) chunk.getBlockData(x & 15, y, z & 15) : 0);
+                    }
+                }
+            }
+
+            header.clear();
+            header.putInt(fromX).putInt(fromZ).putInt(width).putInt(depth).putInt(blocks * 3);
+            header.flip();
+            writeFully(channel, header);
+
+            deflater.reset();
+            deflater.setInput(raw.array(), 0, blocks * 3);
+            deflater.finish();
+            while (!deflater.finished()) {
+                int length = deflater.deflate(compressed);
+                writeFully(channel, ByteBuffer.wrap(compressed, 0, length));
+            }
+        }
+
+        void close() {
+            deflater.end();
+        }
+    }
+
+    private static class Export {
+
+        private final World world;
+        private final Path path;
+        private final FileChannel channel;
+        private final IPromiseFinisher<Long> finisher;
+        private final SegmentWriter writer;
+        private final int minX;
+        private final int minZ;
+        private final int chunksX;
+        private final long[] index;
+
+        Export(final World world, final BoundingBox box, final Path path, final FileChannel channel,
+               final IPromiseFinisher<Long> finisher) {
+            this.world = world;
+            this.path = path;
+            this.channel = channel;
+            this.finisher = finisher;
+            this.writer = new SegmentWriter(box);
+            this.minX = box.getX1() >> 4;
+            this.minZ = box.getZ1() >> 4;
+            this.chunksX = (box.getX2() >> 4) - minX + 1;
+            this.index = new long[chunksX * ((box.getZ2() >> 4) - minZ + 1)];
+        }
+
+        void writeFrom(int n, Promise<ChunkSnapshot> current) {
+            current.always(() -> Promise.getAsyncRunner().execute(() -> {
+                if (current.getState() == PromiseState.REJECTED) {
+                    fail(current.getException(), null);
+                    return;
+                }
+
+                // Capture the next chunk while we write this one, but no further ahead than that.
+                Promise<ChunkSnapshot> next = null;
+                if (n + 1 < index.length) {
+                    next = capture(world, minX + (n + 1) % chunksX, minZ + (n + 1) / chunksX);
+                }
+
+                try {
+                    index[n] = channel.position();
+                    writer.write(channel, current.getResult());
+                    if (next == null) {
+                        writeTrailer(channel, index);
+                        long size = channel.size();
+                        close();
+                        finisher.resolve(size);
+                        return;
+                    }
+                } catch (IOException ex) {
+                    fail(new RuntimeException("Could not write schematic " + path, ex), next);
+                    return;
+                } catch (RuntimeException ex) {
+                    fail(ex, next);
+                    return;
+                }
+                writeFrom(n + 1, next);
+            }));
+        }
+
+        void fail(Exception ex, Promise<ChunkSnapshot> next) {
+            if (next != null) {
+                next.cancel();
+            }
+            try {
+                close();
+            } catch (IOException suppressed) {
+                ex.addSuppressed(suppressed);
+            }
+            finisher.reject(ex);
+        }
+
+        private void close() throws IOException {
+            writer.close();
+            channel.close();
+        }
+    }
+}
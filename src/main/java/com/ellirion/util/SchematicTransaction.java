@@ -0,0 +1,138 @@
+package com.ellirion.util;
+
+import lombok.Getter;
+import org.bukkit.World;
+import com.ellirion.util.async.IPromiseFinisher;
+import com.ellirion.util.async.Promise;
+import com.ellirion.util.async.PromiseState;
+import com.ellirion.util.model.BoundingBox;
+import com.ellirion.util.model.Point;
+import com.ellirion.util.transact.Transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Inflater;
+
+public class SchematicTransaction extends Transaction {
+
+    private Schematic schematic;
+    private World world;
+    @Getter private Point destination;
+    @Getter private BlockChangePriority priority;
+    @Getter private Object submitter;
+    @Getter private boolean physics;
+    // Only ever replaced as a whole, once a paste or revert is done with it.
+    private volatile List<BlockChangeJournal> journals;
+
+    /**
+     * Construct a SchematicTransaction that pastes {@code schematic} in {@code world}
+     * so that its lowest corner ends up at {@code destination}.
+     * @param schematic The Schematic to paste
+     * @param world The World to paste the blocks in
+     * @param destination The lowest corner of the destination
+     * @param priority The priority with which the changes are applied
+     * @param submitter Whoever makes the changes
+     * @param physics Whether to apply physics per block, or write the blocks straight into
+     * the chunks and recalculate their lighting once per chunk
+     */
+    public SchematicTransaction(final Schematic schematic, final World world, final Point destination,
+                                final BlockChangePriority priority, final Object submitter, final boolean physics) {
+        this.schematic = schematic;
+        this.world = world;
+        this.destination = destination;
+        this.priority = priority;
+        this.submitter = submitter;
+        this.physics = physics;
+        this.journals = Collections.emptyList();
+    }
+
+    /**
+     * Gets the journals of the chunks this Transaction has pasted, in the order they were pasted.
+     * The list is only updated once pasting or reverting has finished.
+     * @return The journals
+     */
+    List<BlockChangeJournal> getJournals() {
+        return journals;
+    }
+
+    @Override
+    public BoundingBox getFootprint() {
+        return schematic.getBounds().toWorld(destination);
+    }
+
+    @Override
+    protected Promise<Boolean> applier() {
+        // The chunks are pasted one after the other, and every chunk that is written starts
+        // the next one. The body returns right away, so no thread is held while we paste.
+        return new Promise<>(finisher -> {
+            applyFrom(finisher, new Inflater(), new ArrayList<>(), 0, Promise.resolve(true));
+        }, true);
+    }
+
+    @Override
+    protected Promise<Boolean> reverter() {
+        // The journals hold on to the blocks we replaced, so we revert them one chunk at a time, last first.
+        List<BlockChangeJournal> pasted = journals;
+        return new Promise<>(finisher -> revertFrom(finisher, pasted, pasted.size() - 1), true);
+    }
+
+    private void applyFrom(IPromiseFinisher<Boolean> finisher, Inflater inflater, List<BlockChangeJournal> pasted,
+                           int n, Promise<Boolean> previous) {
+        // Read the next chunk while the previous one is being written.
+        BlockChangeJournal journal = null;
+        Exception failure = null;
+        if (n < schematic.getChunkCount()) {
+            try {
+                journal = schematic.toJournal(n, inflater, world, destination);
+            } catch (Exception ex) {
+                failure = ex;
+            }
+        }
+
+        // Only hand the next chunk to the main thread once the previous one has been written,
+        // so the queue never holds more than a chunk of this schematic at a time.
+        BlockChangeJournal next = journal;
+        Exception cause = failure;
+        whenFinished(previous, finisher, () -> {
+            if (previous.getState() == PromiseState.REJECTED || cause != null || next == null) {
+                // Whatever happens, the chunks we did paste are the ones to revert. A chunk that failed
+                // is only partly written, so we only keep the changes that recorded what they replaced.
+                if (previous.getState() == PromiseState.REJECTED && !pasted.isEmpty()) {
+                    int last = pasted.size() - 1;
+                    pasted.set(last, pasted.get(last).applied());
+                }
+                inflater.end();
+                journals = pasted;
+                if (previous.getState() == PromiseState.REJECTED) {
+                    finisher.reject(previous.getException());
+                } else if (cause != null) {
+                    finisher.reject(cause);
+                } else {
+                    finisher.resolve(true);
+                }
+                return;
+            }
+
+            pasted.add(next);
+            applyFrom(finisher, inflater, pasted, n + 1, WorldHelper.replay(next, true, priority, submitter, physics));
+        });
+    }
+
+    private void revertFrom(IPromiseFinisher<Boolean> finisher, List<BlockChangeJournal> pasted, int n) {
+        if (n < 0) {
+            journals = Collections.emptyList();
+            finisher.resolve(true);
+            return;
+        }
+
+        Promise<Boolean> promise = WorldHelper.replay(pasted.get(n), false, priority, submitter, physics);
+        whenFinished(promise, finisher, () -> {
+            if (promise.getState() == PromiseState.REJECTED) {
+                finisher.reject(promise.getException());
+                return;
+            }
+            revertFrom(finisher, pasted, n - 1);
+        });
+    }
+}
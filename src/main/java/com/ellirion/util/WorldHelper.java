@@ -1,27 +1,58 @@
 package com.ellirion.util;
 
+import net.minecraft.server.v1_12_R1.ChunkSection;
+import net.minecraft.server.v1_12_R1.IBlockData;
+import net.minecraft.server.v1_12_R1.ITileEntity;
 import net.minecraft.server.v1_12_R1.MinecraftServer;
 import net.minecraft.server.v1_12_R1.NBTTagCompound;
 import net.minecraft.server.v1_12_R1.TileEntity;
+import org.bukkit.Bukkit;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
+import org.bukkit.craftbukkit.v1_12_R1.CraftChunk;
 import org.bukkit.craftbukkit.v1_12_R1.CraftWorld;
+import org.bukkit.entity.Player;
 import com.ellirion.util.async.Promise;
+import com.ellirion.util.async.PromiseState;
+import com.ellirion.util.model.BoundingBox;
+import com.ellirion.util.model.Point;
+import com.ellirion.util.transact.ParallelTransaction;
+import com.ellirion.util.transact.SequenceTransaction;
 import com.ellirion.util.transact.Transaction;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
 
 public class WorldHelper {
 
-    private static final Map<Chunk, Long> CHUNK_ACTIVITY = new HashMap<>();
-    private static final BlockingQueue<PendingBlockChange> PENDING = new LinkedBlockingQueue<>();
+    private static final long CHUNK_LOAD_TIMEOUT = 10000;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final double SMOOTHING = 0.2;
+    private static final ChunkResidency RESIDENCY = new ChunkResidency(5000);
+    private static final BlockChangeQueue<ChunkPosition, PendingBlockChange> PENDING =
+            new BlockChangeQueue<>(pending -> new ChunkPosition(pending.change.location));
+    // Unloaded chunks rank behind every loaded chunk, and chunks without players nearby behind those with.
+    private static final double UNLOADED_RANK = 1e15;
+    private static final double NO_PLAYERS_RANK = 1e12;
+
+    private static volatile long tickBudget = TimeUnit.MILLISECONDS.toNanos(5);
+    // Start out at 125 changes per 5 ms, which is what used to be applied every tick.
+    private static volatile double nanosPerChange = 40000;
+    private static volatile double changesPerSecond = 0;
+    private static volatile int changesPerTick = 0;
+    private static volatile long tickInterval = TICK_NANOS;
+    private static long lastRun = 0;
 
     /**
      * Safely set a block in the world at the given coordinates to the given material and metadata.
@@ -45,9 +76,21 @@ public class WorldHelper {
      * @return A {@link BlockChangeTransaction} that has been applied
      */
     public static Transaction setBlock(Location loc, Material mat, byte meta) {
-        Transaction t = new BlockChangeTransaction(new BlockChange(loc, mat, meta));
-        t.apply();
-        return t;
+        return setBlock(loc, mat, meta, null, BlockChangePriority.NORMAL, null);
+    }
+
+    /**
+     * Safely set a block in the world at the given location to the given material and metadata.
+     * @param loc The Location of the block
+     * @param mat The Material of the block
+     * @param meta The metadata of the block
+     * @param priority The priority with which the change is applied
+     * @param submitter Whoever makes the change. Changes of different submitters take turns
+     * @return A {@link BlockChangeTransaction} that has been applied
+     */
+    public static Transaction setBlock(Location loc, Material mat, byte meta,
+                                       BlockChangePriority priority, Object submitter) {
+        return setBlock(loc, mat, meta, null, priority, submitter);
     }
 
     /**
@@ -59,7 +102,22 @@ public class WorldHelper {
      * @return A {@link BlockChangeTransaction} that has been applied
      */
     public static Transaction setBlock(Location loc, Material mat, byte data, NBTTagCompound nbt) {
-        Transaction t = new BlockChangeTransaction(new BlockChange(loc, mat, data, nbt));
+        return setBlock(loc, mat, data, nbt, BlockChangePriority.NORMAL, null);
+    }
+
+    /**
+     * Safely set a block in the world at the given location to the given material, metadata and nbtdata.
+     * @param loc The Location of the block
+     * @param mat The Material of the block
+     * @param data The metadata of the block
+     * @param nbt The nbtdata of the block
+     * @param priority The priority with which the change is applied
+     * @param submitter Whoever makes the change. Changes of different submitters take turns
+     * @return A {@link BlockChangeTransaction} that has been applied
+     */
+    public static Transaction setBlock(Location loc, Material mat, byte data, NBTTagCompound nbt,
+                                       BlockChangePriority priority, Object submitter) {
+        Transaction t = new BlockChangeTransaction(new BlockChange(loc, mat, data, nbt), priority, submitter);
         t.apply();
         return t;
     }
@@ -79,6 +137,219 @@ public class WorldHelper {
         return setBlock(new Location(world, x, y, z), mat, meta, nbt);
     }
 
+    /**
+     * Fill the BoundingBox {@code box} in {@code world} with the given material and metadata.
+     * @param world The World to change the blocks in
+     * @param box The area to fill
+     * @param mat The Material of the blocks
+     * @param meta The metadata of the blocks
+     * @return A {@link JournalTransaction} that has been applied
+     */
+    public static Transaction fill(World world, BoundingBox box, Material mat, byte meta) {
+        return fill(world, box, mat, meta, BlockChangePriority.BULK, null, true);
+    }
+
+    /**
+     * Fill the BoundingBox {@code box} in {@code world} with the given material and metadata.
+     * @param world The World to change the blocks in
+     * @param box The area to fill
+     * @param mat The Material of the blocks
+     * @param meta The metadata of the blocks
+     * @param priority The priority with which the changes are applied
+     * @param submitter Whoever makes the changes. Changes of different submitters take turns
+     * @param physics Whether to apply physics per block. Without physics, blocks are written straight
+     * into the chunk and lighting is recalculated once per chunk, which is a lot faster for large areas
+     * @return A {@link JournalTransaction} that has been applied
+     */
+    public static Transaction fill(World world, BoundingBox box, Material mat, byte meta,
+                                   BlockChangePriority priority, Object submitter, boolean physics) {
+        // Build the journal asynchronously, since it might be called from the main thread.
+        Promise<BlockChangeJournal> journal = new Promise<>(finisher -> {
+            BlockChangeJournal j = new BlockChangeJournal(world);
+            forEachByChunk(world, box, (x, y, z) -> j.add(x, y, z, mat, meta, null));
+            finisher.resolve(j);
+        }, true);
+
+        Transaction t = new JournalTransaction(journal, box, priority, submitter, physics);
+        t.apply();
+        return t;
+    }
+
+    /**
+     * Replace all blocks of Material {@code from} within the BoundingBox {@code box} in {@code world}
+     * with Material {@code to}. Which blocks are replaced is decided from a snapshot of the area
+     * that is taken when this is called, see
+     * {@link #replace(World, BoundingBox, Material, Material, byte, BlockChangePriority, Object, boolean)}.
+     * @param world The World to change the blocks in
+     * @param box The area to replace the blocks in
+     * @param from The Material of the blocks to replace
+     * @param to The Material to replace them with
+     * @return A {@link JournalTransaction} that has been applied
+     */
+    public static Transaction replace(World world, BoundingBox box, Material from, Material to) {
+        return replace(world, box, from, to, (byte) 0, BlockChangePriority.BULK, null, true);
+    }
+
+    /**
+     * Replace all blocks of Material {@code from} within the BoundingBox {@code box} in {@code world}
+     * with Material {@code to} and metadata {@code meta}.
+     * <p>
+     * Which blocks are replaced is decided from a snapshot of the area that is taken when this is called.
+     * The changes are applied over the following ticks, and a block is then replaced whatever it has become
+     * in the meantime. A block that has been changed into {@code from} after the snapshot was taken is left
+     * alone. Reverting the returned Transaction restores what each block was when it was replaced.
+     * @param world The World to change the blocks in
+     * @param box The area to replace the blocks in
+     * @param from The Material of the blocks to replace
+     * @param to The Material to replace them with
+     * @param meta The metadata to replace them with
+     * @param priority The priority with which the changes are applied
+     * @param submitter Whoever makes the changes. Changes of different submitters take turns
+     * @param physics Whether to apply physics per block. Without physics, blocks are written straight
+     * into the chunk and lighting is recalculated once per chunk, which is a lot faster for large areas
+     * @return A {@link JournalTransaction} that has been applied
+     */
+    public static Transaction replace(World world, BoundingBox box, Material from, Material to, byte meta,
+                                      BlockChangePriority priority, Object submitter, boolean physics) {
+        // Find out which blocks to replace from a snapshot, so we don't need the main thread per block.
+        Promise<BlockChangeJournal> journal = RegionSnapshot.capture(world, box).then(snapshot -> {
+            BlockChangeJournal j = new BlockChangeJournal(world);
+            int fromId = from.getId();
+            forEachByChunk(world, box, (x, y, z) -> {
+                if (snapshot.getTypeId(x, y, z) == fromId) {
+                    j.add(x, y, z, fromId, snapshot.getData(x, y, z), null, to.getId(), meta, null);
+                }
+            });
+            return j;
+        }, true);
+
+        Transaction t = new JournalTransaction(journal, box, priority, submitter, physics);
+        t.apply();
+        return t;
+    }
+
+    /**
+     * Copy the blocks within the BoundingBox {@code src} in {@code world} so that its lowest corner
+     * ends up at {@code dst}. The source and destination may overlap. Only the material and metadata
+     * of the blocks are copied, since snapshots don't include tile entity data.
+     * @param world The World to copy the blocks in
+     * @param src The area to copy
+     * @param dst The lowest corner of the destination
+     * @return A {@link JournalTransaction} that has been applied
+     */
+    public static Transaction copy(World world, BoundingBox src, Point dst) {
+        return copy(world, src, dst, BlockChangePriority.BULK, null, true);
+    }
+
+    /**
+     * Copy the blocks within the BoundingBox {@code src} in {@code world} so that its lowest corner
+     * ends up at {@code dst}. The source and destination may overlap. Only the material and metadata
+     * of the blocks are copied, since snapshots don't include tile entity data.
+     * @param world The World to copy the blocks in
+     * @param src The area to copy
+     * @param dst The lowest corner of the destination
+     * @param priority The priority with which the changes are applied
+     * @param submitter Whoever makes the changes. Changes of different submitters take turns
+     * @param physics Whether to apply physics per block. Without physics, blocks are written straight
+     * into the chunk and lighting is recalculated once per chunk, which is a lot faster for large areas
+     * @return A {@link JournalTransaction} that has been applied
+     */
+    public static Transaction copy(World world, BoundingBox src, Point dst,
+                                   BlockChangePriority priority, Object submitter, boolean physics) {
+        BoundingBox target = src.toWorld(dst);
+        int dx = target.getX1() - src.getX1();
+        int dy = target.getY1() - src.getY1();
+        int dz = target.getZ1() - src.getZ1();
+
+        // The snapshot is taken before anything is written, so overlapping areas copy correctly.
+        Promise<BlockChangeJournal> journal = RegionSnapshot.capture(world, src).then(snapshot -> {
+            BlockChangeJournal j = new BlockChangeJournal(world);
+            forEachByChunk(world, target, (x, y, z) -> {
+                int typeId = snapshot.getTypeId(x - dx, y - dy, z - dz);
+                j.add(x, y, z, BlockChangeJournal.UNKNOWN, (byte) 0, null,
+                      typeId, snapshot.getData(x - dx, y - dy, z - dz), null);
+            });
+            return j;
+        }, true);
+
+        Transaction t = new JournalTransaction(journal, target, priority, submitter, physics);
+        t.apply();
+        return t;
+    }
+
+    private static void forEachByChunk(World world, BoundingBox box, ICoordinateConsumer consumer) {
+        // Blocks above or below the world can't be changed, so they are left out.
+        int fromY = Math.max(box.getY1(), 0);
+        int toY = Math.min(box.getY2(), world.getMaxHeight() - 1);
+
+        // Go through the area one chunk at a time, so the changes end up in as few batches as possible.
+        for (int chunkX = box.getX1() >> 4; chunkX <= box.getX2() >> 4; chunkX++) {
+            for (int chunkZ = box.getZ1() >> 4; chunkZ <= box.getZ2() >> 4; chunkZ++) {
+                int fromX = Math.max(box.getX1(), chunkX << 4);
+                int toX = Math.min(box.getX2(), (chunkX << 4) + 15);
+                int fromZ = Math.max(box.getZ1(), chunkZ << 4);
+                int toZ = Math.min(box.getZ2(), (chunkZ << 4) + 15);
+                for (int y = fromY; y <= toY; y++) {
+                    for (int z = fromZ; z <= toZ; z++) {
+                        for (int x = fromX; x <= toX; x++) {
+                            consumer.accept(x, y, z);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Fold the applied Transaction {@code transaction}, and every Transaction nested in it, into a single
+     * applied Transaction. For every block that was changed, only the state before the first change and
+     * the state after the last change are kept.
+     * @param transaction The Transaction to compact
+     * @return A Promise that resolves with an applied Transaction that reverts everything {@code transaction} did
+     * @see #compact(Transaction, BlockChangePriority, Object)
+     */
+    public static Promise<Transaction> compact(Transaction transaction) {
+        return compact(transaction, null, null);
+    }
+
+    /**
+     * Fold the applied Transaction {@code transaction}, and every Transaction nested in it, into a single
+     * applied {@link JournalTransaction}. For every block that was changed, only the state before the first
+     * change and the state after the last change are kept. This lets go of all nested Transactions and their
+     * Promises, and reverting it only takes as long as the amount of distinct blocks that were changed.
+     * <p>
+     * The folding starts once whatever {@code transaction} is doing has finished. The resulting Promise is
+     * rejected with an IllegalStateException when {@code transaction} is not applied by then, and with an
+     * IllegalArgumentException when it contains a Transaction that does not change blocks, changes blocks
+     * in more than one World, or contains a {@link ParallelTransaction} of which two children change the
+     * same block.
+     * <p>
+     * The changes are reverted with physics per block when any of the folded Transactions applied them
+     * that way, and written straight into the chunks otherwise.
+     * @param transaction The Transaction to compact
+     * @param priority The priority with which the changes are reverted, or null to use the priority the folded
+     * Transactions applied their changes with when they all agree, and {@link BlockChangePriority#NORMAL} otherwise
+     * @param submitter Whoever reverts the changes
+     * @return A Promise that resolves with an applied Transaction that reverts everything {@code transaction} did
+     */
+    public static Promise<Transaction> compact(Transaction transaction, BlockChangePriority priority,
+                                               Object submitter) {
+        return transaction.whenSettled().then(settled -> {
+            if (!transaction.isApplied()) {
+                throw new IllegalStateException("Only an applied Transaction can be compacted");
+            }
+
+            Compaction compaction = new Compaction();
+            compaction.add(transaction);
+            if (compaction.journal == null) {
+                return new SequenceTransaction(true);
+            }
+            return new JournalTransaction(true, compaction.journal,
+                                          priority != null ? priority : compaction.getPriority(), submitter,
+                                          compaction.physics);
+        }, true);
+    }
+
     /**
      * Safely get a block from the world at the given coordinates.
      * @param world The World to get the block from
@@ -92,28 +363,92 @@ public class WorldHelper {
         int chunkX = Math.floorDiv(x, 16);
         int chunkZ = Math.floorDiv(z, 16);
 
-        if (!world.isChunkLoaded(chunkX, chunkZ) &&
-            (MinecraftServer.getServer() == null || Thread.currentThread() !=
-                                                    MinecraftServer.getServer().primaryThread)) {
-            Promise p = new Promise<>(finisher -> {
-                world.loadChunk(chunkX, chunkZ);
-                markChunkActive(world.getChunkAt(chunkX, chunkZ));
+        if (!world.isChunkLoaded(chunkX, chunkZ) && !isPrimaryThread()) {
+            Promise<Object> p = new Promise<>(finisher -> {
+                loadChunk(world, chunkX, chunkZ);
                 finisher.resolve(null);
-            }, false);
+            }, false, false);
+            // A failure is thrown from here, so it should not count as unhandled on the main thread.
+            p.except(ex -> { });
+            p.schedule();
+
+            // Don't pin this thread forever if the main thread never gets around to it.
+            if (!p.await(CHUNK_LOAD_TIMEOUT, TimeUnit.MILLISECONDS) && p.cancel()) {
+                throw new RuntimeException("Timed out loading chunk (" + chunkX + ", " + chunkZ + ")");
+            }
 
-            p.await();
+            // Unless the chunk was loaded, we may not go on, since getBlockAt() would load it from this thread.
+            if (p.getState() != PromiseState.RESOLVED) {
+                throw new RuntimeException("Could not load chunk (" + chunkX + ", " + chunkZ + ")", p.getException());
+            }
         }
 
+        // Every read keeps the chunk active, not just the one that had to load it.
+        RESIDENCY.markActive(world, chunkX, chunkZ);
+
         // Get the block
         return world.getBlockAt(x, y, z);
     }
 
+    /**
+     * Load every chunk that the BoundingBox {@code box} touches in {@code world}. All chunks that
+     * are not loaded yet are loaded in a single task on the main thread, so reading a large area
+     * with {@link #getBlock(World, int, int, int)} afterwards doesn't wait on the main thread per chunk.
+     * @param world The World to load the chunks in
+     * @param box The area to load
+     * @return A Promise that resolves with the amount of chunks that had to be loaded
+     */
+    public static Promise<Integer> preloadChunks(World world, BoundingBox box) {
+        List<int[]> unloaded = new ArrayList<>();
+        for (int chunkX = box.getX1() >> 4; chunkX <= box.getX2() >> 4; chunkX++) {
+            for (int chunkZ = box.getZ1() >> 4; chunkZ <= box.getZ2() >> 4; chunkZ++) {
+                if (!world.isChunkLoaded(chunkX, chunkZ)) {
+                    unloaded.add(new int[] {chunkX, chunkZ});
+                }
+            }
+        }
+
+        if (unloaded.isEmpty()) {
+            return Promise.resolve(0);
+        }
+
+        // On the main thread, we might as well do it right away.
+        if (isPrimaryThread()) {
+            return Promise.resolve(loadChunks(world, unloaded));
+        }
+        return new Promise<>(finisher -> finisher.resolve(loadChunks(world, unloaded)), false);
+    }
+
+    private static int loadChunks(World world, List<int[]> chunks) {
+        for (int[] chunk : chunks) {
+            loadChunk(world, chunk[0], chunk[1]);
+        }
+        return chunks.size();
+    }
+
+    static Chunk loadChunk(World world, int chunkX, int chunkZ) {
+        // Remember whether we were the ones who loaded it, so we can unload it again when we're done.
+        boolean loaded = world.isChunkLoaded(chunkX, chunkZ);
+        Chunk chunk = world.getChunkAt(chunkX, chunkZ);
+        if (loaded) {
+            RESIDENCY.markActive(chunk);
+        } else {
+            RESIDENCY.markLoaded(chunk);
+        }
+        return chunk;
+    }
+
+    private static boolean isPrimaryThread() {
+        return MinecraftServer.getServer() != null &&
+               Thread.currentThread() == MinecraftServer.getServer().primaryThread;
+    }
+
     /**
      * Marks the given Chunk as active.
      * @param c The Chunk to mark as active
      */
     public static void markChunkActive(Chunk c) {
-        CHUNK_ACTIVITY.put(c, System.currentTimeMillis());
+        RESIDENCY.markActive(c);
     }
 
     /**
@@ -121,7 +456,7 @@ public class WorldHelper {
      * @param c The Chunk to mark as inactive
      */
     public static void markChunkInactive(Chunk c) {
-        CHUNK_ACTIVITY.remove(c);
+        RESIDENCY.markInactive(c);
     }
 
     /**
@@ -130,7 +465,7 @@ public class WorldHelper {
      * @return Whether this Chunk is marked active or not
      */
     public static boolean isChunkActive(Chunk c) {
-        return System.currentTimeMillis() - CHUNK_ACTIVITY.getOrDefault(c, 0L) < 5000;
+        return RESIDENCY.isActive(c);
     }
 
     /**
@@ -142,26 +477,238 @@ public class WorldHelper {
         return getBlock(loc.getWorld(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
     }
 
-    private static Promise<BlockChange> scheduleSetBlock(BlockChange change) {
+    private static Promise<BlockChange> scheduleSetBlock(BlockChange change, BlockChangePriority priority,
+                                                         Object submitter) {
         PendingBlockChange pending = new PendingBlockChange(change);
-        PENDING.add(pending);
+        PENDING.add(pending, priority, submitter);
         return pending.promise;
     }
 
+    /**
+     * Schedule all changes in {@code journal}. Going forward, the 'after' states are applied from first
+     * to last, and the 'before' states are recorded as they are replaced. Going backward, the 'before'
+     * states are applied from last to first.
+     * @param journal The journal to replay
+     * @param forward Whether to apply the changes, rather than revert them
+     * @param priority The priority with which the changes are applied
+     * @param submitter Whoever makes the changes
+     * @param physics Whether to apply physics and lighting per block
+     * @return A Promise that resolves once all changes have been applied
+     */
+    static Promise<Boolean> replay(BlockChangeJournal journal, boolean forward,
+                                   BlockChangePriority priority, Object submitter, boolean physics) {
+        return replay(journal, 0, journal.size(), forward, priority, submitter, physics);
+    }
+
+    /**
+     * Schedule the changes {@code from} (inclusive) up to {@code to} (exclusive) in {@code journal}.
+     * @param journal The journal to replay
+     * @param from The index of the first change to replay
+     * @param to The index after the last change to replay
+     * @param forward Whether to apply the changes, rather than revert them
+     * @param priority The priority with which the changes are applied
+     * @param submitter Whoever makes the changes
+     * @param physics Whether to apply physics and lighting per block
+     * @return A Promise that resolves once all changes have been applied
+     * @see #replay(BlockChangeJournal, boolean, BlockChangePriority, Object, boolean)
+     */
+    static Promise<Boolean> replay(BlockChangeJournal journal, int from, int to, boolean forward,
+                                   BlockChangePriority priority, Object submitter, boolean physics) {
+        int size = to - from;
+        if (size <= 0) {
+            return Promise.resolve(true);
+        }
+
+        World world = journal.getWorld();
+        if (world == null) {
+            return Promise.reject(new IllegalStateException("The world of this journal is not loaded"));
+        }
+
+        if (journal.indexOfUnknown(from, to, forward) >= 0) {
+            return Promise.reject(new IllegalStateException("Cannot revert a change that has never been applied"));
+        }
+
+        // All changes share one Promise, rather than having one each. Rather than queueing every change,
+        // we queue a cursor per run of changes in the same chunk, which builds the changes as they are taken.
+        Promise<Boolean> promise = new Promise<>();
+        JournalReplay replay = new JournalReplay(journal, world, forward, physics, promise, size);
+        int step = forward ? 1 : -1;
+        int first = forward ? from : to - 1;
+        int n = 0;
+        while (n < size) {
+            int start = first + n * step;
+            int count = journal.countInChunk(start, step, size - n);
+            PENDING.add(new JournalCursor(replay, start, count), priority, submitter);
+            n += count;
+        }
+        return promise;
+    }
+
+    /**
+     * Record the current state of the blocks of changes {@code from} (inclusive) up to {@code to} (exclusive)
+     * in {@code journal} as their 'before' state, without changing them. This runs as a single task on the
+     * main thread, so the states are known before any of the changes are applied.
+     * @param journal The journal to record the states in
+     * @param from The index of the first change
+     * @param to The index after the last change
+     * @return A Promise that resolves once the states have been recorded
+     */
+    static Promise<Boolean> recordBefore(BlockChangeJournal journal, int from, int to) {
+        World world = journal.getWorld();
+        if (world == null) {
+            return Promise.reject(new IllegalStateException("The world of this journal is not loaded"));
+        }
+
+        return new Promise<>(finisher -> {
+            for (int i = from; i < to; i++) {
+                int x = journal.getX(i);
+                int y = journal.getY(i);
+                int z = journal.getZ(i);
+                Block block = loadChunk(world, x >> 4, z >> 4).getBlock(x & 15, y, z & 15);
+                TileEntity te = ((CraftWorld) world).getTileEntityAt(x, y, z);
+                journal.setBefore(i, block.getTypeId(), block.getData(), te == null ? null : saveTileEntity(te, x, y, z));
+            }
+            finisher.resolve(true);
+        }, false);
+    }
+
+    private static NBTTagCompound saveTileEntity(TileEntity te, int x, int y, int z) {
+        NBTTagCompound ntc = te.save(new NBTTagCompound());
+        ntc.setInt("x", x);
+        ntc.setInt("y", y);
+        ntc.setInt("z", z);
+        return ntc;
+    }
+
+    /**
+     * Sets the time that {@link #run()} may spend applying block changes every tick.
+     * @param budget The time per tick
+     * @param unit The unit of {@code budget}
+     */
+    public static void setTickBudget(long budget, TimeUnit unit) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("The tick budget must be positive");
+        }
+        tickBudget = unit.toNanos(budget);
+    }
+
+    /**
+     * Gets the time that {@link #run()} may spend applying block changes every tick.
+     * @param unit The unit to return the budget in
+     * @return The time per tick
+     */
+    public static long getTickBudget(TimeUnit unit) {
+        return unit.convert(tickBudget, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the measured average time it takes to apply a single block change.
+     * @return The time per change in nanoseconds
+     */
+    public static double getNanosPerChange() {
+        return nanosPerChange;
+    }
+
+    /**
+     * Gets the amount of block changes that were applied during the last tick.
+     * @return The amount of changes
+     */
+    public static int getChangesPerTick() {
+        return changesPerTick;
+    }
+
+    /**
+     * Gets the average amount of block changes that are applied per second.
+     * @return The amount of changes per second
+     */
+    public static double getChangesPerSecond() {
+        return changesPerSecond;
+    }
+
+    /**
+     * Gets the measured time between the last two ticks. This is the full 50 ms on a healthy
+     * server, and more when the server can not keep up.
+     * @param unit The unit to return the interval in
+     * @return The time between ticks
+     */
+    public static long getTickInterval(TimeUnit unit) {
+        return unit.convert(tickInterval, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the amount of block changes that are waiting to be applied.
+     * @return The amount of pending changes
+     */
+    public static int getPendingCount() {
+        return PENDING.size();
+    }
+
     /**
      * Run scheduled block changes.
      */
     public static void run() {
-        // 125 is the "magic value" of block updates that can be applied
-        // per tick without having a noticeable performance impact.
-        for (int i = 0; i < 125; i++) {
-            PendingBlockChange pending = PENDING.poll();
-            if (pending == null) {
-                return;
-            }
+        long start = System.nanoTime();
+        long interval = lastRun == 0 ? TICK_NANOS : start - lastRun;
+        lastRun = start;
+        tickInterval = interval;
+
+        // Spend as much of our budget as we can, unless the server is already falling behind.
+        // In that case, scale it down so we don't make the lag any worse.
+        long budget = tickBudget;
+        if (interval > TICK_NANOS) {
+            budget = budget * TICK_NANOS / interval;
+        }
+        long maxWrites = Math.max(1, (long) (budget / nanosPerChange));
+
+        // Players should see progress around them first.
+        PENDING.setRanking(rankByPlayers());
+
+        // Take as many changes as fit in our budget, and apply them.
+        TickBatch batch = new TickBatch(maxWrites);
+        PendingBlockChange pending;
+        while ((pending = PENDING.pollIf(batch::fits)) != null) {
+            batch.add(pending);
+        }
+        batch.apply();
+        int writes = batch.writes;
 
-            pending.apply();
+        // Keep track of how fast we are going, so we know how much we can do next tick. Chunks that had
+        // to be loaded from disk are left out, or a single load would shrink the next couple dozen ticks.
+        long elapsed = System.nanoTime() - start - batch.loadNanos;
+        if (writes > 0) {
+            nanosPerChange += SMOOTHING * ((double) elapsed / writes - nanosPerChange);
         }
+        changesPerTick = writes;
+        changesPerSecond += SMOOTHING * (writes * 1e9 / interval - changesPerSecond);
+
+        // Unload the chunks we loaded once we're done with them.
+        RESIDENCY.expire();
+    }
+
+    private static ToDoubleFunction<ChunkPosition> rankByPlayers() {
+        // Take a snapshot of where everyone is now, since the ranking is used during the rest of the tick.
+        Map<World, List<int[]>> players = new HashMap<>();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            Location loc = player.getLocation();
+            players.computeIfAbsent(loc.getWorld(), w -> new ArrayList<>())
+                   .add(new int[] {loc.getBlockX() >> 4, loc.getBlockZ() >> 4});
+        }
+
+        // Loaded chunks go first, so they can be finished before they might be unloaded.
+        // Among those, the ones closest to a player go first.
+        return pos -> {
+            double rank = NO_PLAYERS_RANK;
+            for (int[] chunk : players.getOrDefault(pos.world, Collections.emptyList())) {
+                double dx = chunk[0] - pos.x;
+                double dz = chunk[1] - pos.z;
+                rank = Math.min(rank, dx * dx + dz * dz);
+            }
+            return pos.world.isChunkLoaded(pos.x, pos.z) ? rank : UNLOADED_RANK + rank;
+        };
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
     }
 
     /**
@@ -205,45 +752,52 @@ public class WorldHelper {
         private Material material;
         private byte data;
         private NBTTagCompound nbt;
+        private boolean physics;
 
         BlockChange(final Location loc, final Material mat, final byte data) {
             this(loc, mat, data, null);
         }
 
         BlockChange(final Location loc, final Material mat, final byte data, final NBTTagCompound nbt) {
+            this(loc, mat, data, nbt, true);
+        }
+
+        BlockChange(final Location loc, final Material mat, final byte data, final NBTTagCompound nbt,
+                    final boolean physics) {
             location = loc;
             material = mat;
             this.data = data;
             this.nbt = nbt;
+            this.physics = physics;
         }
 
-        BlockChange apply() {
+        BlockChange apply(Block block) {
+            TileEntity te = getTileEntity();
+
+            // If the block already is what we want it to be, all we may need to do is load the nbtdata.
+            if (isCurrently(block)) {
+                if (te == null || nbt == null) {
+                    return new BlockChange(location, material, data);
+                }
+                BlockChange change = new BlockChange(location, material, data, save(te));
+                te.load(nbt);
+                return change;
+            }
+
             // Note what the current block state was so we can revert back to it.
-            Block block = getBlock(location);
             BlockChange change;
-
-            TileEntity te = ((CraftWorld) location.getWorld()).getTileEntityAt(location.getBlockX(),
-                                                                               location.getBlockY(),
-                                                                               location.getBlockZ());
             if (te != null) {
-                NBTTagCompound ntc = te.save(new NBTTagCompound());
-                ntc.setInt("x", location.getBlockX());
-                ntc.setInt("y", location.getBlockY());
-                ntc.setInt("z", location.getBlockZ());
-                change = new BlockChange(location, block.getType(), block.getData(), ntc);
+                change = new BlockChange(location, block.getType(), block.getData(), save(te));
                 te.load(new NBTTagCompound());
             } else {
                 change = new BlockChange(location, block.getType(), block.getData());
             }
 
-            // Apply the changes we were supposed to make.
-            block.setType(material);
-            block.setData(data);
+            // Apply the changes we were supposed to make, as a single block update.
+            block.setTypeIdAndData(material.getId(), data, physics);
 
             if (nbt != null) {
-                TileEntity te2 = ((CraftWorld) location.getWorld()).getTileEntityAt(location.getBlockX(),
-                                                                                    location.getBlockY(),
-                                                                                    location.getBlockZ());
+                TileEntity te2 = getTileEntity();
                 if (te2 != null) {
                     te2.load(nbt);
                 }
@@ -251,22 +805,501 @@ public class WorldHelper {
             // Return the BlockChange to be used for reverting.
             return change;
         }
+
+        boolean canWriteDirectly() {
+            // Tile entities are created and removed by the regular path, so we leave those to it.
+            return !physics && nbt == null && getTileEntity() == null &&
+                   !(net.minecraft.server.v1_12_R1.Block.getById(material.getId()) instanceof ITileEntity);
+        }
+
+        BlockChange writeDirectly(Block block, net.minecraft.server.v1_12_R1.Chunk chunk) {
+            BlockChange change = new BlockChange(location, block.getType(), block.getData());
+            if (isCurrently(block)) {
+                return change;
+            }
+
+            // Write straight into the chunk section, without any physics, lighting or packets.
+            int y = location.getBlockY();
+            ChunkSection[] sections = chunk.getSections();
+            ChunkSection section = sections[y >> 4];
+            if (section == null) {
+                if (material == Material.AIR) {
+                    return change;
+                }
+                section = new ChunkSection(y >> 4 << 4,
+                                           location.getWorld().getEnvironment() == World.Environment.NORMAL);
+                sections[y >> 4] = section;
+            }
+            IBlockData type = net.minecraft.server.v1_12_R1.Block.getById(material.getId()).fromLegacyData(data);
+            section.setType(location.getBlockX() & 15, y & 15, location.getBlockZ() & 15, type);
+            return change;
+        }
+
+        private boolean isCurrently(Block block) {
+            return block.getTypeId() == material.getId() && block.getData() == data;
+        }
+
+        private TileEntity getTileEntity() {
+            return ((CraftWorld) location.getWorld()).getTileEntityAt(location.getBlockX(),
+                                                                      location.getBlockY(),
+                                                                      location.getBlockZ());
+        }
+
+        private NBTTagCompound save(TileEntity te) {
+            return saveTileEntity(te, location.getBlockX(), location.getBlockY(), location.getBlockZ());
+        }
+    }
+
+    @FunctionalInterface
+    private interface ICoordinateConsumer {
+        void accept(int x, int y, int z);
     }
 
-    private static class PendingBlockChange {
+    private static class PendingBlockChange implements BlockChangeQueue.IRun<PendingBlockChange> {
 
         private BlockChange change;
         private Promise<BlockChange> promise;
+        private boolean taken;
 
         PendingBlockChange(final BlockChange change) {
+            this(change, new Promise<>());
+        }
+
+        PendingBlockChange(final BlockChange change, final Promise<BlockChange> promise) {
             this.change = change;
-            promise = new Promise<>();
+            this.promise = promise;
+            this.taken = false;
+        }
+
+        @Override
+        public PendingBlockChange peek() {
+            return this;
+        }
+
+        @Override
+        public PendingBlockChange take() {
+            taken = true;
+            return this;
+        }
+
+        @Override
+        public int size() {
+            return taken ? 0 : 1;
         }
 
-        BlockChange apply() {
-            BlockChange previous = change.apply();
+        void resolve(BlockChange previous) {
             promise.getFinisher().resolve(previous);
-            return previous;
+        }
+
+        void reject(Exception ex) {
+            promise.getFinisher().reject(ex);
+        }
+    }
+
+    private static class JournalBlockChange extends PendingBlockChange {
+
+        private JournalReplay replay;
+        private int index;
+
+        JournalBlockChange(final BlockChange change, final JournalReplay replay, final int index) {
+            super(change, null);
+            this.replay = replay;
+            this.index = index;
+        }
+
+        @Override
+        void resolve(BlockChange previous) {
+            replay.resolve(index, previous);
+        }
+
+        @Override
+        void reject(Exception ex) {
+            replay.reject(ex);
+        }
+    }
+
+    private static class JournalCursor implements BlockChangeQueue.IRun<PendingBlockChange> {
+
+        private JournalReplay replay;
+        private int index;
+        private int remaining;
+        private PendingBlockChange next;
+
+        JournalCursor(final JournalReplay replay, final int index, final int count) {
+            this.replay = replay;
+            this.index = index;
+            this.remaining = count;
+            this.next = null;
+        }
+
+        @Override
+        public PendingBlockChange peek() {
+            if (next == null) {
+                next = replay.change(index);
+            }
+            return next;
+        }
+
+        @Override
+        public PendingBlockChange take() {
+            PendingBlockChange change = peek();
+            next = null;
+            index += replay.forward ? 1 : -1;
+            remaining--;
+            return change;
+        }
+
+        @Override
+        public int size() {
+            return remaining;
+        }
+    }
+
+    private static class JournalReplay {
+
+        private BlockChangeJournal journal;
+        private World world;
+        private boolean forward;
+        private boolean physics;
+        private Promise<Boolean> promise;
+        private int remaining;
+        private Exception failure;
+
+        JournalReplay(final BlockChangeJournal journal, final World world, final boolean forward,
+                      final boolean physics, final Promise<Boolean> promise, final int size) {
+            this.journal = journal;
+            this.world = world;
+            this.forward = forward;
+            this.physics = physics;
+            this.promise = promise;
+            this.remaining = size;
+            this.failure = null;
+        }
+
+        PendingBlockChange change(int index) {
+            // Read the whole change at once, rather than taking the lock of the journal per property.
+            BlockChange change = journal.read(index, forward, (x, y, z, typeId, data, nbt) -> {
+                return new BlockChange(new Location(world, x, y, z), Material.getMaterial(typeId), data, nbt, physics);
+            });
+            return new JournalBlockChange(change, this, index);
+        }
+
+        // Changes are only ever resolved on the main thread, so we don't need to synchronize.
+        void resolve(int index, BlockChange previous) {
+            if (forward) {
+                journal.setBefore(index, previous.material.getId(), previous.data, previous.nbt);
+            }
+            finish();
+        }
+
+        void reject(Exception ex) {
+            if (failure == null) {
+                failure = ex;
+            }
+            finish();
+        }
+
+        private void finish() {
+            if (--remaining > 0) {
+                return;
+            }
+            if (failure != null) {
+                promise.getFinisher().reject(failure);
+            } else {
+                promise.getFinisher().resolve(true);
+            }
+        }
+    }
+
+    private static class ChunkPosition {
+
+        private World world;
+        private int x;
+        private int z;
+
+        ChunkPosition(final Location loc) {
+            world = loc.getWorld();
+            x = loc.getBlockX() >> 4;
+            z = loc.getBlockZ() >> 4;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof ChunkPosition) {
+                ChunkPosition p = (ChunkPosition) o;
+                return x == p.x && z == p.z && world.equals(p.world);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * x + z) * 31 + world.hashCode();
+        }
+    }
+
+    private static class TickBatch {
+
+        private long maxWrites;
+        private int writes;
+        private long loadNanos;
+        private Map<World, Map<Long, ChunkBatch>> chunks;
+
+        TickBatch(final long maxWrites) {
+            this.maxWrites = maxWrites;
+            writes = 0;
+            loadNanos = 0;
+            chunks = new LinkedHashMap<>();
+        }
+
+        boolean fits(PendingBlockChange pending) {
+            // Changes to a block that is already part of this batch are free,
+            // since only the last one is actually written.
+            if (writes < maxWrites) {
+                return true;
+            }
+            ChunkBatch batch = find(pending.change.location, false);
+            return batch != null && batch.contains(pending);
+        }
+
+        void add(PendingBlockChange pending) {
+            ChunkBatch batch = find(pending.change.location, true);
+            if (!batch.contains(pending)) {
+                writes++;
+            }
+            batch.add(pending);
+        }
+
+        void apply() {
+            for (Map<Long, ChunkBatch> batches : chunks.values()) {
+                for (ChunkBatch batch : batches.values()) {
+                    loadNanos += batch.apply();
+                }
+            }
+        }
+
+        private ChunkBatch find(Location loc, boolean create) {
+            // Group the changes per chunk, and per block within each chunk.
+            int chunkX = loc.getBlockX() >> 4;
+            int chunkZ = loc.getBlockZ() >> 4;
+            Map<Long, ChunkBatch> batches = chunks.get(loc.getWorld());
+            if (batches == null) {
+                if (!create) {
+                    return null;
+                }
+                batches = new LinkedHashMap<>();
+                chunks.put(loc.getWorld(), batches);
+            }
+            ChunkBatch batch = batches.get(chunkKey(chunkX, chunkZ));
+            if (batch == null && create) {
+                batch = new ChunkBatch(loc.getWorld(), chunkX, chunkZ);
+                batches.put(chunkKey(chunkX, chunkZ), batch);
+            }
+            return batch;
+        }
+    }
+
+    private static class ChunkBatch {
+
+        private World world;
+        private int chunkX;
+        private int chunkZ;
+        private Map<Integer, List<PendingBlockChange>> blocks;
+
+        ChunkBatch(final World world, final int chunkX, final int chunkZ) {
+            this.world = world;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            blocks = new LinkedHashMap<>();
+        }
+
+        boolean contains(PendingBlockChange pending) {
+            return blocks.containsKey(blockKey(pending.change.location));
+        }
+
+        void add(PendingBlockChange pending) {
+            blocks.computeIfAbsent(blockKey(pending.change.location), k -> new ArrayList<>(1)).add(pending);
+        }
+
+        long apply() {
+            // Look the chunk up (and load it if needed) once for the whole batch. Loading it
+            // says nothing about how long writing blocks takes, so we report it separately.
+            long loadStart = System.nanoTime();
+            boolean loaded = world.isChunkLoaded(chunkX, chunkZ);
+            Chunk chunk = loadChunk(world, chunkX, chunkZ);
+            long loading = loaded ? 0 : System.nanoTime() - loadStart;
+            boolean wroteDirectly = false;
+
+            for (List<PendingBlockChange> changes : blocks.values()) {
+                // Only the last change to a block is actually written.
+                BlockChange last = changes.get(changes.size() - 1).change;
+                Location loc = last.location;
+                BlockChange original;
+                try {
+                    Block block = chunk.getBlock(loc.getBlockX() & 15, loc.getBlockY(), loc.getBlockZ() & 15);
+                    if (last.canWriteDirectly()) {
+                        original = last.writeDirectly(block, ((CraftChunk) chunk).getHandle());
+                        wroteDirectly = true;
+                    } else {
+                        original = last.apply(block);
+                    }
+                } catch (Exception ex) {
+                    for (PendingBlockChange pending : changes) {
+                        pending.reject(ex);
+                    }
+                    continue;
+                }
+
+                // Each change reverts to whatever the change before it would have left behind,
+                // and the first one to what was actually there.
+                BlockChange previous = original;
+                for (PendingBlockChange pending : changes) {
+                    pending.resolve(previous);
+                    previous = pending.change;
+                }
+            }
+
+            // Blocks written straight into the chunk still need their lighting
+            // and need to be sent to the players. We do so once for the whole batch.
+            if (wroteDirectly) {
+                net.minecraft.server.v1_12_R1.Chunk handle = ((CraftChunk) chunk).getHandle();
+                handle.initLighting();
+                handle.markDirty();
+                world.refreshChunk(chunkX, chunkZ);
+            }
+            return loading;
+        }
+
+        private static int blockKey(Location loc) {
+            return (loc.getBlockY() << 8) | ((loc.getBlockX() & 15) << 4) | (loc.getBlockZ() & 15);
+        }
+    }
+
+    private static class Compaction {
+
+        private World world;
+        private BlockChangeJournal journal;
+        private BlockChangePriority priority;
+        private boolean mixedPriorities;
+        private boolean physics;
+        private final LongIntMap indices = new LongIntMap(-1);
+        private int[] writers = new int[16];
+        private int[] windows = new int[8];
+        private int depth;
+        private int scope;
+        private int scopes;
+
+        void add(Transaction transaction) {
+            if (transaction instanceof ParallelTransaction) {
+                add((ParallelTransaction) transaction);
+            } else if (transaction instanceof SequenceTransaction) {
+                // Children that change the same block are always applied in the order they were added in.
+                for (Transaction child : ((SequenceTransaction) transaction).getChildren()) {
+                    add(child);
+                }
+            } else if (transaction instanceof BlockChangeTransaction) {
+                BlockChange before = ((BlockChangeTransaction) transaction).before;
+                BlockChange after = ((BlockChangeTransaction) transaction).after;
+                Location loc = after.location;
+                appliedWith(((BlockChangeTransaction) transaction).priority, after.physics);
+                add(loc.getWorld(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ(),
+                    before.material.getId(), before.data, before.nbt,
+                    after.material.getId(), after.data, after.nbt);
+            } else if (transaction instanceof JournalTransaction) {
+                JournalTransaction t = (JournalTransaction) transaction;
+                appliedWith(t.getPriority(), t.isPhysics());
+                add(t.getJournal());
+            } else if (transaction instanceof CheckpointedTransaction) {
+                CheckpointedTransaction t = (CheckpointedTransaction) transaction;
+                appliedWith(t.getPriority(), t.isPhysics());
+                add(t.getJournal());
+            } else if (transaction instanceof SchematicTransaction) {
+                SchematicTransaction t = (SchematicTransaction) transaction;
+                appliedWith(t.getPriority(), t.isPhysics());
+                for (BlockChangeJournal j : t.getJournals()) {
+                    add(j);
+                }
+            } else {
+                throw new IllegalArgumentException("Cannot compact a " + transaction.getClass().getSimpleName());
+            }
+        }
+
+        private void appliedWith(BlockChangePriority priority, boolean physics) {
+            // Reverting with physics is always safe, so if any change was applied with it, all of them are.
+            this.physics |= physics;
+            if (this.priority == null) {
+                this.priority = priority;
+            } else if (this.priority != priority) {
+                mixedPriorities = true;
+            }
+        }
+
+        BlockChangePriority getPriority() {
+            return priority == null || mixedPriorities ? BlockChangePriority.NORMAL : priority;
+        }
+
+        private void add(ParallelTransaction transaction) {
+            // Children of a ParallelTransaction are applied at the same time, so when two of them change the
+            // same block, we can't tell which change came last. Every child therefore gets its own scope, and
+            // for every ParallelTransaction we are in, we remember the window of scopes of its earlier children.
+            // A block that was last changed in one of those windows may not be changed again.
+            int outer = scope;
+            if (depth * 2 == windows.length) {
+                windows = Arrays.copyOf(windows, windows.length * 2);
+            }
+            windows[depth * 2] = scopes + 1;
+            depth++;
+            for (Transaction child : transaction.getChildren()) {
+                windows[depth * 2 - 1] = scopes + 1;
+                scope = ++scopes;
+                add(child);
+            }
+            depth--;
+            scope = outer;
+        }
+
+        private void add(BlockChangeJournal j) {
+            World world = j.getWorld();
+            if (world == null) {
+                throw new IllegalStateException("The world of this journal is not loaded");
+            }
+            for (int i = 0; i < j.size(); i++) {
+                add(world, j.getX(i), j.getY(i), j.getZ(i),
+                    j.getTypeId(i, false), j.getData(i, false), j.getNbt(i, false),
+                    j.getTypeId(i, true), j.getData(i, true), j.getNbt(i, true));
+            }
+        }
+
+        private void add(World world, int x, int y, int z,
+                         int beforeId, byte beforeData, NBTTagCompound beforeNbt,
+                         int afterId, byte afterData, NBTTagCompound afterNbt) {
+            if (journal == null) {
+                this.world = world;
+                journal = new BlockChangeJournal(world);
+            } else if (!world.getUID().equals(this.world.getUID())) {
+                throw new IllegalArgumentException("Cannot compact changes in more than one World");
+            }
+
+            // The first change of a block decides what it was before, the last one what it is now.
+            long key = BlockChangeJournal.pack(x, y, z);
+            int i = indices.get(key);
+            if (i < 0) {
+                i = journal.add(x, y, z, beforeId, beforeData, beforeNbt, afterId, afterData, afterNbt);
+                indices.put(key, i);
+            } else {
+                for (int d = 0; d < depth; d++) {
+                    if (windows[d * 2] <= writers[i] && writers[i] < windows[d * 2 + 1]) {
+                        throw new IllegalArgumentException(
+                                "Cannot compact a ParallelTransaction whose children change the same block");
+                    }
+                }
+                journal.setAfter(i, afterId, afterData, afterNbt);
+            }
+
+            if (i == writers.length) {
+                writers = Arrays.copyOf(writers, writers.length * 2);
+            }
+            writers[i] = scope;
         }
     }
 
@@ -274,15 +1307,19 @@ public class WorldHelper {
 
         private BlockChange before;
         private BlockChange after;
+        private BlockChangePriority priority;
+        private Object submitter;
 
-        BlockChangeTransaction(final BlockChange change) {
+        BlockChangeTransaction(final BlockChange change, final BlockChangePriority priority, final Object submitter) {
             before = null;
             after = change;
+            this.priority = priority;
+            this.submitter = submitter;
         }
 
         @Override
         protected Promise<Boolean> applier() {
-            return scheduleSetBlock(after).then(change -> {
+            return scheduleSetBlock(after, priority, submitter).then(change -> {
                 before = change;
                 return true;
             });
@@ -290,7 +1327,13 @@ public class WorldHelper {
 
         @Override
         protected Promise<Boolean> reverter() {
-            return scheduleSetBlock(before).then(change -> true);
+            return scheduleSetBlock(before, priority, submitter).then(change -> true);
+        }
+
+        @Override
+        public BoundingBox getFootprint() {
+            Location loc = after.location;
+            return new BoundingBox(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
         }
     }
 }
@@ -1,9 +1,26 @@
 package com.ellirion.util.async;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
 public class Counter {
 
-    private final Object latch;
-    private int count;
+    private static final AtomicIntegerFieldUpdater<Counter> COUNT =
+            AtomicIntegerFieldUpdater.newUpdater(Counter.class, "count");
+    private static final AtomicReferenceFieldUpdater<Counter, Waiter[]> WAITERS =
+            AtomicReferenceFieldUpdater.newUpdater(Counter.class, Waiter[].class, "waiters");
+    private static final AtomicReferenceFieldUpdater<Counter, ReentrantLock> LOCK =
+            AtomicReferenceFieldUpdater.newUpdater(Counter.class, ReentrantLock.class, "lock");
+
+    private static final Waiter[] NO_WAITERS = new Waiter[0];
+
+    private volatile int count;
+    private volatile Waiter[] waiters;
+    private volatile ReentrantLock lock;
 
     /**
      * Construct a Counter with an initial count of zero.
@@ -17,28 +34,23 @@ public class Counter {
      * @param count The initial count
      */
     public Counter(final int count) {
-        this.latch = new Object();
         this.count = count;
+        this.waiters = NO_WAITERS;
+        this.lock = null;
     }
 
     /**
      * Increment the count by one.
      */
     public void increment() {
-        synchronized (latch) {
-            count++;
-            latch.notifyAll();
-        }
+        signal(COUNT.incrementAndGet(this));
     }
 
     /**
      * Decrement the count by one.
      */
     public void decrement() {
-        synchronized (latch) {
-            count--;
-            latch.notifyAll();
-        }
+        signal(COUNT.decrementAndGet(this));
     }
 
     /**
@@ -46,18 +58,21 @@ public class Counter {
      * @return The current count
      */
     public int get() {
-        synchronized (latch) {
-            return count;
-        }
+        return count;
     }
 
     /**
      * Acquire the lock and perform the Runnable {@code r}.
+     * Calling {@link #await(int)} from within {@code r} releases the lock while waiting.
      * @param r The Runnable to run
      */
     public void perform(Runnable r) {
-        synchronized (latch) {
+        ReentrantLock l = getLock();
+        l.lock();
+        try {
             r.run();
+        } finally {
+            l.unlock();
         }
     }
 
@@ -69,18 +84,185 @@ public class Counter {
     }
 
     /**
-     * Wait for this Counter to reach {@code i}.
+     * Wait for this Counter to reach {@code i}. This returns once the count has
+     * reached {@code i}, even if it has already changed again since.
      * @param i The number to reach
      */
     public void await(int i) {
+        awaitNanos(i, false, 0L);
+    }
+
+    /**
+     * Wait at most {@code timeout} for this Counter to reach {@code i}.
+     * @param i The number to reach
+     * @param timeout The maximum time to wait
+     * @param unit The unit of {@code timeout}
+     * @return Whether the number was reached before the timeout elapsed
+     */
+    public boolean await(int i, long timeout, TimeUnit unit) {
+        return awaitNanos(i, true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    private boolean awaitNanos(int i, boolean timed, long deadline) {
+        if (count == i) {
+            return true;
+        }
+
+        // Just like Object.wait(), we give up the lock of perform() while waiting.
+        int holds = releaseLock();
+
+        Waiter waiter = new Waiter(this, i, timed, deadline);
+        addWaiter(waiter);
         try {
-            synchronized (latch) {
-                while (count != i) {
-                    latch.wait();
+            for (;;) {
+                // When waiting on a ForkJoinPool thread, the pool may start a
+                // compensating thread so it does not run out of workers.
+                try {
+                    ForkJoinPool.managedBlock(waiter);
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException("await() was interrupted", ex);
+                }
+
+                // Once the target has been seen, the count moving on again does not make us fail.
+                // Only a timed wait can get here without having seen it, when its deadline passed.
+                if (!waiter.reached) {
+                    return false;
+                }
+
+                // If we were called from within perform(), the count may have changed again before
+                // we got the lock back. Only return once we have seen the count while holding it.
+                if (holds == 0) {
+                    return true;
+                }
+                acquireLock(holds);
+                if (count == i) {
+                    holds = 0;
+                    return true;
+                }
+                waiter.reached = false;
+                holds = releaseLock();
+            }
+        } finally {
+            removeWaiter(waiter);
+            acquireLock(holds);
+        }
+    }
+
+    private void signal(int value) {
+        // Only wake the threads that were actually waiting for this value. They are told the
+        // value was reached, since the count may already have moved on by the time they wake up.
+        for (Waiter waiter : waiters) {
+            if (waiter.target == value) {
+                waiter.reached = true;
+                LockSupport.unpark(waiter.thread);
+            }
+        }
+    }
+
+    private void addWaiter(Waiter waiter) {
+        for (;;) {
+            Waiter[] current = waiters;
+            Waiter[] next = new Waiter[current.length + 1];
+            System.arraycopy(current, 0, next, 0, current.length);
+            next[current.length] = waiter;
+            if (WAITERS.compareAndSet(this, current, next)) {
+                return;
+            }
+        }
+    }
+
+    private void removeWaiter(Waiter waiter) {
+        for (;;) {
+            Waiter[] current = waiters;
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == waiter) {
+                    index = i;
+                    break;
                 }
             }
-        } catch (InterruptedException ex) {
-            throw new RuntimeException("await() was interrupted", ex);
+            if (index < 0) {
+                return;
+            }
+
+            Waiter[] next = NO_WAITERS;
+            if (current.length > 1) {
+                next = new Waiter[current.length - 1];
+                System.arraycopy(current, 0, next, 0, index);
+                System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+            }
+            if (WAITERS.compareAndSet(this, current, next)) {
+                return;
+            }
+        }
+    }
+
+    private ReentrantLock getLock() {
+        // Most Counters are never used with perform(), so the lock is only created when needed.
+        ReentrantLock l = lock;
+        if (l == null) {
+            LOCK.compareAndSet(this, null, new ReentrantLock());
+            l = lock;
+        }
+        return l;
+    }
+
+    private int releaseLock() {
+        ReentrantLock l = lock;
+        if (l == null || !l.isHeldByCurrentThread()) {
+            return 0;
+        }
+        int holds = l.getHoldCount();
+        for (int i = 0; i < holds; i++) {
+            l.unlock();
+        }
+        return holds;
+    }
+
+    private void acquireLock(int holds) {
+        for (int i = 0; i < holds; i++) {
+            lock.lock();
+        }
+    }
+
+    private static final class Waiter implements ForkJoinPool.ManagedBlocker {
+
+        private final Counter counter;
+        private final Thread thread;
+        private final int target;
+        private final boolean timed;
+        private final long deadline;
+        private volatile boolean reached;
+
+        Waiter(final Counter counter, final int target, final boolean timed, final long deadline) {
+            this.counter = counter;
+            this.thread = Thread.currentThread();
+            this.target = target;
+            this.timed = timed;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            if (!isReleasable()) {
+                if (timed) {
+                    LockSupport.parkNanos(counter, deadline - System.nanoTime());
+                } else {
+                    LockSupport.park(counter);
+                }
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            return isReleasable();
+        }
+
+        @Override
+        public boolean isReleasable() {
+            if (!reached && counter.count == target) {
+                reached = true;
+            }
+            return reached || (timed && deadline - System.nanoTime() <= 0);
         }
     }
 }
@@ -0,0 +1,136 @@
+package com.ellirion.util.async;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ForkJoinRunner implements Executor {
+
+    private final ForkJoinPool pool;
+    private final String name;
+    private final LongAdder submitted;
+    private final LongAdder completed;
+
+    /**
+     * Construct a ForkJoinRunner with one thread per available processor.
+     */
+    public ForkJoinRunner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construct a ForkJoinRunner with the given {@code parallelism}.
+     * @param parallelism The targeted amount of active threads
+     */
+    public ForkJoinRunner(final int parallelism) {
+        this(parallelism, "EllirionUtil-Async");
+    }
+
+    /**
+     * Construct a ForkJoinRunner with the given {@code parallelism}, whose
+     * threads are named after {@code name}.
+     * @param parallelism The targeted amount of active threads
+     * @param name The prefix of the names of the threads
+     */
+    public ForkJoinRunner(final int parallelism, final String name) {
+        AtomicInteger index = new AtomicInteger();
+        this.name = name;
+        this.submitted = new LongAdder();
+        this.completed = new LongAdder();
+
+        // Promise bodies are independent event-style tasks that are never joined,
+        // so we run the pool in FIFO (async) mode. Threads blocked in Counter.await()
+        // are compensated for by the pool, so the parallelism is not a hard limit
+        // on the amount of Promises that can wait at the same time.
+        this.pool = new ForkJoinPool(parallelism, p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName(name + "-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }, null, true);
+    }
+
+    @Override
+    public void execute(Runnable r) {
+        submitted.increment();
+        pool.execute(() -> {
+            try {
+                r.run();
+            } finally {
+                completed.increment();
+            }
+        });
+    }
+
+    /**
+     * Gets the targeted amount of active threads.
+     * @return The parallelism of this runner
+     */
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Gets the amount of threads that have been started and not yet terminated.
+     * @return The current amount of threads
+     */
+    public int getPoolSize() {
+        return pool.getPoolSize();
+    }
+
+    /**
+     * Gets an estimate of the amount of threads that are currently running tasks.
+     * @return The amount of active threads
+     */
+    public int getActiveThreadCount() {
+        return pool.getActiveThreadCount();
+    }
+
+    /**
+     * Gets an estimate of the amount of tasks waiting to be ran.
+     * @return The queue depth of this runner
+     */
+    public long getQueuedTaskCount() {
+        return pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+    }
+
+    /**
+     * Gets the amount of tasks submitted to this runner.
+     * @return The amount of submitted tasks
+     */
+    public long getSubmittedTaskCount() {
+        return submitted.sum();
+    }
+
+    /**
+     * Gets the amount of tasks this runner has finished running.
+     * @return The amount of completed tasks
+     */
+    public long getCompletedTaskCount() {
+        return completed.sum();
+    }
+
+    /**
+     * Stops accepting new tasks, and waits at most {@code timeout} for the queued tasks to finish.
+     * @param timeout The maximum time to wait
+     * @param unit The unit of {@code timeout}
+     * @return Whether all tasks finished before the timeout elapsed
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        pool.shutdown();
+        try {
+            return pool.awaitTermination(timeout, unit);
+        } catch (InterruptedException ex) {
+            throw new RuntimeException("shutdown() was interrupted", ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ForkJoinRunner(name=%s, parallelism=%d, active=%d, queued=%d)",
+                             name, getParallelism(), getActiveThreadCount(), getQueuedTaskCount());
+    }
+}
@@ -3,35 +3,77 @@ package com.ellirion.util.async;
 import lombok.Getter;
 import org.apache.commons.lang.UnhandledException;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.function.Consumer;
 
 import static com.ellirion.util.async.PromiseState.*;
 
 public class Promise<TResult> {
 
-    private static Consumer<Runnable> SYNC_RUNNER;
-    private static Consumer<Runnable> ASYNC_RUNNER;
-
-    private PromiseState state;
-    private boolean scheduled;
+    private static Executor SYNC_RUNNER;
+    private static Executor ASYNC_RUNNER;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Promise, PromiseState> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(Promise.class, PromiseState.class, "state");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Promise, Handler> HANDLERS =
+            AtomicReferenceFieldUpdater.newUpdater(Promise.class, Handler.class, "handlers");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<Promise> SCHEDULED =
+            AtomicIntegerFieldUpdater.newUpdater(Promise.class, "scheduled");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Promise, Counter> LATCH =
+            AtomicReferenceFieldUpdater.newUpdater(Promise.class, Counter.class, "latch");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Promise, Counter> CHILD_LATCH =
+            AtomicReferenceFieldUpdater.newUpdater(Promise.class, Counter.class, "childLatch");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Promise, Counter> PARENT_LATCH =
+            AtomicReferenceFieldUpdater.newUpdater(Promise.class, Counter.class, "parentLatch");
+
+    // Marks the handler stack as closed: once a Promise has finished, no more
+    // handlers can be pushed and they must be invoked directly instead.
+    @SuppressWarnings("rawtypes")
+    private static final Handler SEALED = new Callbacks<>(null, null, null);
+
+    // Follow-up Promises that are ran on this thread once the current one has finished.
+    private static final ThreadLocal<Fusion> FUSION = ThreadLocal.withInitial(Fusion::new);
+
+    @Getter private volatile PromiseState state;
+    private volatile int scheduled;
     @Getter private volatile TResult result;
     @Getter private volatile Exception exception;
 
-    private final List<Consumer<TResult>> onResolve;
-    private final List<Consumer<Exception>> onReject;
-
-    private Counter parentLatch;
-    private final Counter childLatch;
+    // Lock-free (Treiber) stack of handlers, invoked in registration order upon finishing.
+    // It is only allocated one node at a time, as handlers are actually added.
+    private volatile Handler<TResult> handlers;
 
-    private final IPromiseBody<TResult> runner;
-    @Getter private final IPromiseFinisher<TResult> finisher;
+    // Latches are only created once they are needed: the parentLatch by whoever
+    // created us through then() or except(), the childLatch when we get follow-up
+    // Promises, and the latch when a thread actually waits on us.
+    private volatile Counter parentLatch;
+    private volatile Counter childLatch;
+    private volatile Counter latch;
+    private volatile boolean done;
 
-    private final Counter latch;
+    private IPromiseBody<TResult> runner;
+    private IPromiseFinisher<TResult> finisher;
     private final boolean async;
 
     /**
@@ -67,30 +109,18 @@ public class Promise<TResult> {
      */
     public Promise(final IPromiseBody<TResult> runner, final boolean async, final boolean immediate) {
         this.state = PENDING;
-        this.scheduled = false;
+        this.scheduled = 0;
         this.result = null;
         this.exception = null;
+        this.handlers = null;
 
-        this.onResolve = new ArrayList<>();
-        this.onReject = new ArrayList<>();
-
-        this.parentLatch = new Counter(1);
-        this.childLatch = new Counter(0);
+        this.parentLatch = null;
+        this.childLatch = null;
+        this.latch = null;
+        this.done = false;
 
         this.runner = runner;
-        this.finisher = new IPromiseFinisher<TResult>() {
-            @Override
-            public void resolve(TResult t) {
-                handleResolve(t);
-            }
-
-            @Override
-            public void reject(Exception ex) {
-                handleReject(ex);
-            }
-        };
-
-        this.latch = new Counter(1);
+        this.finisher = null;
         this.async = async;
 
         // Schedule (sync or async) the invocation of our runner if requested.
@@ -106,25 +136,25 @@ public class Promise<TResult> {
      * @param <TNext> The return type of the {@code continuer}
      * @return The resulting Promise with type {@code TNext}.
      */
-    public synchronized <TNext> Promise<TNext> then(
+    public <TNext> Promise<TNext> then(
             IPromiseContinuer<TResult, TNext> continuer, boolean async) {
         // Create a follow-up promise that does not schedule itself immediately.
-        Promise<TNext> next = new Promise<>(finisher -> {
-            try {
-                synchronized (this) {
-                    TNext n = continuer.run(result);
-                    finisher.resolve(n);
-                }
-            } catch (Exception ex) {
-                finisher.reject(ex);
-            }
-        }, async, false);
+        // Its body, finisher and our handler for it are all the same object.
+        Promise<TNext> next = new Promise<>(null, async, false);
+        Continuation<TResult, TNext> continuation = new Continuation<>(this, next, continuer, null);
 
         // When the next Promise finishes execution of itself and all it's children,
         // it will inform us by decrementing our childLatch. We can be certain all our
         // children have executed by waiting for our childLatch to reach zero.
-        childLatch.increment();
-        next.parentLatch = childLatch;
+        Counter children = childLatch();
+        children.increment();
+        next.parentLatch = children;
+
+        // If we are still pending, don't schedule it yet!
+        // We put the handler on our handler stack.
+        if (push(continuation)) {
+            return next;
+        }
 
         // If we have already been resolved, schedule the next Promise for execution.
         if (state == RESOLVED) {
@@ -137,18 +167,8 @@ public class Promise<TResult> {
         // would cause the next Promise to immediately throw an "unhandled exception"
         // exception. What we WILL do is straight away set the next Promise to a failed
         // state without running the handlers.
-        if (state == REJECTED) {
-            childLatch.decrement();
-            next.state = REJECTED;
-            next.latch.decrement();
-            next.exception = exception;
-            return next;
-        }
-
-        // If we are still pending, don't schedule it yet!
-        // We put the handlers in the follow-up queue(s).
-        onResolve.add(result -> next.runBody());
-        onReject.add(next::runFailure);
+        next.settle(REJECTED, null, exception);
+        next.finished();
         return next;
     }
 
@@ -187,6 +207,43 @@ public class Promise<TResult> {
         }, async);
     }
 
+    /**
+     * When this Promise is resolved, the {@code continuer} is invoked with the result.
+     * The Promise returned by the {@code continuer} is scheduled, and its outcome becomes
+     * the outcome of the resulting Promise, rather than producing a nested Promise.
+     * @param continuer The function body that is invoked upon resolving
+     * @param async Whether to run the {@code continuer} asynchronously or not
+     * @param <TNext> The result type of the Promise returned by the {@code continuer}
+     * @return The resulting Promise with type {@code TNext}.
+     */
+    public <TNext> Promise<TNext> thenCompose(
+            IPromiseContinuer<TResult, Promise<TNext>> continuer, boolean async) {
+        Promise<TNext> flat = new Promise<>(null, async, false);
+        then(continuer, async).whenDone(inner -> {
+            // A continuer returning null is treated as returning a Promise resolved with null.
+            if (inner == null) {
+                flat.getFinisher().resolve(null);
+                return;
+            }
+            inner.whenDone(flat.getFinisher()::resolve, flat.getFinisher()::reject);
+            inner.schedule();
+        }, flat.getFinisher()::reject);
+        return flat;
+    }
+
+    /**
+     * When this Promise is resolved, the {@code continuer} is invoked with the result.
+     * The Promise returned by the {@code continuer} is scheduled, and its outcome becomes
+     * the outcome of the resulting Promise, rather than producing a nested Promise.
+     * The {@code continuer} is ran with the same synchronicity as this Promise.
+     * @param continuer The function body that is invoked upon resolving
+     * @param <TNext> The result type of the Promise returned by the {@code continuer}
+     * @return The resulting Promise with type {@code TNext}.
+     */
+    public <TNext> Promise<TNext> thenCompose(IPromiseContinuer<TResult, Promise<TNext>> continuer) {
+        return thenCompose(continuer, async);
+    }
+
     /**
      * When this Promise is rejected, the {@code continuer} is invoked with the exception.
      * @param continuer The function body that is invoked upon rejection
@@ -194,39 +251,35 @@ public class Promise<TResult> {
      * @param <TNext> The return type of the {@code continuer}
      * @return The resulting Promise with type {@code TNext}.
      */
-    public synchronized <TNext> Promise<TNext> except(
+    public <TNext> Promise<TNext> except(
             IPromiseContinuer<Exception, TNext> continuer, boolean async) {
         // Create a follow-up promise that does not schedule itself immediately.
-        Promise<TNext> next = new Promise<>(finisher -> {
-            try {
-                finisher.resolve(continuer.run(exception));
-            } catch (Exception ex) {
-                finisher.reject(ex);
-            }
-        }, async, false);
+        // Its body, finisher and our handler for it are all the same object.
+        Promise<TNext> next = new Promise<>(null, async, false);
+        Continuation<TResult, TNext> continuation = new Continuation<>(this, next, null, continuer);
 
         // When the next Promise finishes execution of itself and all it's children,
         // it will inform us by decrementing our childLatch. We can be certain all our
         // children have executed by waiting for our childLatch to reach zero.
-        childLatch.increment();
-        next.parentLatch = childLatch;
+        Counter children = childLatch();
+        children.increment();
+        next.parentLatch = children;
+
+        // If we are still pending, don't schedule it yet!
+        // We put the handler on our handler stack.
+        if (push(continuation)) {
+            return next;
+        }
 
         // If we have already been resolved, just return the
         // next Promise. It will never be executed.
         if (state == RESOLVED) {
-            childLatch.decrement();
+            next.releaseParent();
             return next;
         }
 
         // If we have been rejected, schedule the next Promise for execution.
-        if (state == REJECTED) {
-            next.runBody();
-            return next;
-        }
-
-        // If we are still pending, don't schedule it yet!
-        // We put the handlers in the follow-up queue(s).
-        onReject.add(result -> next.runBody());
+        next.runBody();
         return next;
     }
 
@@ -270,17 +323,15 @@ public class Promise<TResult> {
      * The {@code runnable} is therefore ran from the same synchronicity as this Promise.
      * @param runnable The function body that is invoked upon finishing
      */
-    public synchronized void always(Runnable runnable) {
-        // If we have already finished, just run the consumer-
-        // but be careful to run it with the correct synchronicity!
-        if (state != PENDING) {
-            runnable.run();
+    public void always(Runnable runnable) {
+        // If we are still pending, we add it to the handler stack.
+        if (push(new Callbacks<>(result -> runnable.run(), ex -> runnable.run(), null))) {
             return;
         }
 
-        // Otherwise, we add it to the queues.
-        onResolve.add(result -> runnable.run());
-        onReject.add(ex -> runnable.run());
+        // If we have already finished, just run the consumer-
+        // but be careful to run it with the correct synchronicity!
+        runnable.run();
     }
 
     /**
@@ -290,17 +341,128 @@ public class Promise<TResult> {
     public boolean await() {
         try {
             // Wait for this Promise to finish executing.
-            latch.await(0);
+            if (!done) {
+                Counter l = latch();
+                if (!done) {
+                    l.await(0);
+                }
+            }
 
             // Wait for our child Promises (if any) to finish executing.
-            childLatch.await(0);
+            Counter children = childLatch;
+            if (children != null) {
+                children.await(0);
+            }
         } catch (Exception ex) {
             throw new RuntimeException("await() was interrupted", ex);
         }
 
-        synchronized (this) {
-            return state == RESOLVED;
+        return state == RESOLVED;
+    }
+
+    /**
+     * Waits at most {@code timeout} for this Promise to resolve or reject.
+     * Use {@link #getState()} to tell a rejection apart from a timeout.
+     * @param timeout The maximum time to wait
+     * @param unit The unit of {@code timeout}
+     * @return Whether this Promise was resolved before the timeout elapsed
+     */
+    public boolean await(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        // Wait for this Promise to finish executing.
+        if (!done) {
+            Counter l = latch();
+            if (!done && !l.await(0, timeout, unit)) {
+                return false;
+            }
+        }
+
+        // Wait for our child Promises (if any) to finish executing, in the time we have left.
+        Counter children = childLatch;
+        if (children != null && !children.await(0, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+
+        return state == RESOLVED;
+    }
+
+    /**
+     * Cancel this Promise if it has not finished yet. It is rejected with a
+     * {@link CancellationException} and its body will not be ran if it has not
+     * started yet. Any pending Promises created from this Promise through
+     * {@code then()} and {@code except()} are cancelled as well.
+     * A body that is already running is not interrupted.
+     * @return Whether this Promise was cancelled by this call
+     */
+    public boolean cancel() {
+        CancellationException ex = new CancellationException("Promise was cancelled");
+        Handler<TResult> handler = settle(REJECTED, null, ex);
+        if (handler == SEALED) {
+            return false;
+        }
+
+        // Follow-up Promises are cancelled rather than ran or rejected, while
+        // plain handlers (like those of always()) are informed of the rejection.
+        try {
+            for (; handler != null; handler = handler.next) {
+                handler.cancelled(ex);
+            }
+        } finally {
+            // Inform our parent we've finished execution, and only notify waiting
+            // threads after all handlers have been ran, even if one of them failed.
+            finished();
+        }
+        return true;
+    }
+
+    /**
+     * Cancel this Promise if it has not finished within {@code timeout}.
+     * When this Promise was created by {@link #all}, {@link #any} or {@link #sequence},
+     * the Promises it was created from are cancelled along with it.
+     * @param timeout The time this Promise is given to finish
+     * @param unit The unit of {@code timeout}
+     * @return This Promise
+     */
+    public Promise<TResult> withDeadline(long timeout, TimeUnit unit) {
+        // The timer thread only hands the cancellation off, since cancelling
+        // may run handlers throughout a whole tree of follow-up Promises.
+        ScheduledFuture<?> task = Deadlines.TIMER.schedule(() -> ASYNC_RUNNER.execute(this::cancel),
+                                                           timeout, unit);
+
+        // Don't keep the timer (and this Promise) around when we finish in time.
+        Runnable release = () -> task.cancel(false);
+        if (!push(new Callbacks<>(result -> release.run(), ex -> release.run(), release, false))) {
+            release.run();
+        }
+        return this;
+    }
+
+    /**
+     * Get a CompletableFuture that is completed with the outcome of this Promise.
+     * This does not schedule this Promise, and no thread is blocked waiting on it.
+     * @return The CompletableFuture
+     */
+    public CompletableFuture<TResult> toCompletableFuture() {
+        CompletableFuture<TResult> future = new CompletableFuture<>();
+        whenDone(future::complete, ex -> future.completeExceptionally(
+                ex == null ? new CancellationException("Promise was rejected without an exception") : ex));
+        return future;
+    }
+
+    /**
+     * Get the finisher that is used to resolve or reject this Promise.
+     * @return The finisher of this Promise
+     */
+    public IPromiseFinisher<TResult> getFinisher() {
+        // Only created when asked for. Racing threads may each create
+        // one, but they are interchangeable since they hold no state.
+        IPromiseFinisher<TResult> f = finisher;
+        if (f == null) {
+            f = new Finisher<>(this);
+            finisher = f;
         }
+        return f;
     }
 
     /**
@@ -308,93 +470,238 @@ public class Promise<TResult> {
      * Does nothing if this Promise has already been scheduled.
      * @return This Promise
      */
-    public synchronized Promise<TResult> schedule() {
+    public Promise<TResult> schedule() {
         runBody();
         return this;
     }
 
-    private synchronized void schedule(Runnable r) {
+    private void schedule(Runnable r) {
         // Only schedule if we haven't been scheduled yet,
         // and we actually have a body to run.
-        if (runner == null || scheduled || state != PENDING) {
+        if (runner == null || state != PENDING || !SCHEDULED.compareAndSet(this, 0, 1)) {
             return;
         }
-        scheduled = true;
 
         // Actually schedule.
         schedule(r, async);
     }
 
     private void schedule(Runnable r, boolean async) {
-        if (async) {
-            ASYNC_RUNNER.accept(r);
-        } else {
-            SYNC_RUNNER.accept(r);
+        Executor executor = async ? ASYNC_RUNNER : SYNC_RUNNER;
+
+        // If a follow-up Promise on the synchronous runner is finishing on this thread right now,
+        // and this is its only follow-up, we don't schedule a new task but run after it, as part of
+        // the same task. Asynchronous follow-ups always get their own task, so they can run side by side.
+        if (!async && r instanceof Continuation) {
+            Fusion fusion = FUSION.get();
+            if (fusion.runner == executor) {
+                Runnable fused = fusion.next;
+                if (fused == null) {
+                    fusion.next = r;
+                    return;
+                }
+
+                // It has more than one follow-up after all, so each of them gets a task of its own.
+                if (fused != Fusion.SPLIT) {
+                    fusion.next = Fusion.SPLIT;
+                    executor.execute(fused);
+                }
+            }
         }
+
+        executor.execute(r);
     }
 
-    private synchronized void runBody() {
+    private void runBody() {
+        // Follow-up Promises are their own task, so they don't need a wrapper.
+        if (runner instanceof Continuation) {
+            schedule((Runnable) runner);
+            return;
+        }
+
         schedule(() -> {
+            // We may have been cancelled while waiting to be ran.
+            if (state != PENDING) {
+                return;
+            }
+
             // If the runner throws an exception, catch it and reject this Promise.
+            IPromiseFinisher<TResult> f = getFinisher();
             try {
-                runner.run(finisher);
+                runner.run(f);
             } catch (Exception ex) {
-                finisher.reject(ex);
+                f.reject(ex);
             }
         });
     }
 
-    private synchronized void runFailure(Exception ex) {
+    private void runFailure(Exception ex) {
         schedule(() -> handleReject(ex));
     }
 
-    private synchronized void handleResolve(TResult t) {
-        if (state != PENDING) {
+    private void handleResolve(TResult t) {
+        // Store the result and mark ourselves as resolved.
+        // Only the first attempt to finish this Promise succeeds.
+        Handler<TResult> handler = settle(RESOLVED, t, null);
+        if (handler == SEALED) {
             return;
         }
 
-        // Store the result and mark ourselves as resolved.
-        // We also notify any threads waiting for this Promise to finish.
-        state = RESOLVED;
-        result = t;
-
         // Invoke all functions waiting on this Promise being resolved.
-        for (Consumer<TResult> next : onResolve) {
-            next.accept(t);
+        try {
+            for (; handler != null; handler = handler.next) {
+                handler.resolved(t);
+            }
+        } finally {
+            // Inform our parent we've finished execution, and only notify waiting
+            // threads after all handlers have been ran, even if one of them failed.
+            finished();
         }
-
-        // Inform our parent we've finished execution.
-        parentLatch.decrement();
-
-        // Only notify waiting threads after all handlers have been ran.
-        latch.decrement();
     }
 
-    private synchronized void handleReject(Exception ex) {
-        if (state != PENDING) {
+    private void handleReject(Exception ex) {
+        // Store the exception and mark ourselves as rejected.
+        // Only the first attempt to finish this Promise succeeds.
+        Handler<TResult> handler = settle(REJECTED, null, ex);
+        if (handler == SEALED) {
             return;
         }
 
-        // Store the exception and mark ourselves as rejected.
-        // We also notify any threads waiting for this Promise to finish.
-        state = REJECTED;
-        exception = ex;
-
         // If there are no exception handlers registered on this Promise, throw the exception.
-        if (onReject.size() == 0 && ex != null) {
+        // Threads waiting on us are released first, so they see the rejection instead of hanging.
+        if (!handlesRejection(handler) && ex != null) {
+            finished();
             throw new UnhandledException("Promise failed with unhandled exception", ex);
         }
 
         // Invoke all functions waiting on this Promise being rejected.
-        for (Consumer<Exception> next : onReject) {
-            next.accept(ex);
+        try {
+            for (; handler != null; handler = handler.next) {
+                handler.rejected(ex);
+            }
+        } finally {
+            // Inform our parent we've finished execution, and only notify waiting
+            // threads after all handlers have been ran, even if one of them failed.
+            finished();
         }
+    }
+
+    private void finished() {
+        releaseParent();
+
+        // Whoever creates the latch checks 'done' after doing so, and we check
+        // for the latch after setting 'done'. One of us is bound to see the other.
+        done = true;
+        Counter l = latch;
+        if (l != null) {
+            l.decrement();
+        }
+    }
+
+    private void releaseParent() {
+        // Both finishing and being skipped by our parent let go of its childLatch,
+        // and whichever comes first is the only one that gets to decrement it.
+        Counter l = parentLatch;
+        if (l != null && PARENT_LATCH.compareAndSet(this, l, null)) {
+            l.decrement();
+        }
+    }
 
-        // Inform our parent we've finished execution.
-        parentLatch.decrement();
+    private Counter latch() {
+        Counter l = latch;
+        if (l == null) {
+            LATCH.compareAndSet(this, null, new Counter(1));
+            l = latch;
+        }
+        return l;
+    }
 
-        // Only notify waiting threads after all handlers have been ran.
-        latch.decrement();
+    private Counter childLatch() {
+        Counter l = childLatch;
+        if (l == null) {
+            CHILD_LATCH.compareAndSet(this, null, new Counter(0));
+            l = childLatch;
+        }
+        return l;
+    }
+
+    /**
+     * Move this Promise from PENDING to {@code target} using a single CAS, store the outcome
+     * and close the handler stack. Returns the registered handlers in registration order,
+     * or {@link #SEALED} if this Promise had already finished.
+     */
+    @SuppressWarnings("unchecked")
+    private Handler<TResult> settle(PromiseState target, TResult t, Exception ex) {
+        if (!STATE.compareAndSet(this, PENDING, target)) {
+            return SEALED;
+        }
+        result = t;
+        exception = ex;
+
+        // Close the stack so no more handlers can be pushed. Anyone failing to push after
+        // this point is guaranteed to observe our result, since it was written before.
+        Handler<TResult> head = HANDLERS.getAndSet(this, SEALED);
+
+        // The stack is last-in-first-out, so reverse it to get the registration order.
+        Handler<TResult> ordered = null;
+        while (head != null) {
+            Handler<TResult> next = head.next;
+            head.next = ordered;
+            ordered = head;
+            head = next;
+        }
+        return ordered;
+    }
+
+    private static boolean handlesRejection(Handler<?> handler) {
+        for (; handler != null; handler = handler.next) {
+            if (handler.handlesRejection()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void whenDone(Consumer<? super TResult> onResolve, Consumer<Exception> onReject) {
+        // Register raw handlers without creating a follow-up Promise. These finish another
+        // Promise from within our handler loop, so they are detached from our thread.
+        Consumer<? super TResult> resolved = detached(onResolve);
+        Consumer<Exception> rejected = detached(onReject);
+        if (push(new Callbacks<>(resolved, rejected, null))) {
+            return;
+        }
+        if (state == RESOLVED) {
+            resolved.accept(result);
+        } else {
+            rejected.accept(exception);
+        }
+    }
+
+    private static <T> Consumer<T> detached(Consumer<T> consumer) {
+        return t -> {
+            try {
+                consumer.accept(t);
+            } catch (UnhandledException ex) {
+                // The Promise we finished failed without anyone handling it. That is its failure,
+                // not ours, so it is thrown on a thread of its own instead of cutting our loop short.
+                ASYNC_RUNNER.execute(() -> {
+                    throw ex;
+                });
+            }
+        };
+    }
+
+    private boolean push(Handler<TResult> handler) {
+        for (;;) {
+            Handler<TResult> head = handlers;
+            if (head == SEALED) {
+                return false;
+            }
+            handler.next = head;
+            if (HANDLERS.compareAndSet(this, head, handler)) {
+                return true;
+            }
+        }
     }
 
     /**
@@ -419,17 +726,35 @@ public class Promise<TResult> {
      * @return A map from input Promise to result
      */
     public static Promise<Map<Promise, Object>> sequence(boolean immediate, Promise<?>... promises) {
-        return new Promise<>(finisher -> {
-            Map<Promise, Object> results = new HashMap<>();
-            for (Promise<?> p : promises) {
-                p.schedule();
-                if (!p.await()) {
-                    finisher.reject(p.exception);
-                }
-                results.put(p, p.result);
-            }
-            finisher.resolve(results);
-        }, true, immediate);
+        List<Promise<?>> list = Arrays.asList(promises);
+        return compose(immediate, list, finisher -> new Sequencer<Object>(list, toMap(list, finisher)).drain());
+    }
+
+    /**
+     * Schedule the given Promises in sequence. This means that any given Promise
+     * is only scheduled when all Promises before it have been resolved.
+     * If any Promise is rejected, the result Promise is also rejected and any
+     * following Promises are not executed.
+     * @param promises The Promises to schedule in sequence
+     * @param <T> The type of the result values
+     * @return The results of the given Promises, in the same order
+     */
+    public static <T> Promise<List<T>> sequence(List<? extends Promise<? extends T>> promises) {
+        return sequence(true, promises);
+    }
+
+    /**
+     * Schedule the given Promises in sequence. This means that any given Promise
+     * is only scheduled when all Promises before it have been resolved.
+     * If any Promise is rejected, the result Promise is also rejected and any
+     * following Promises are not executed.
+     * @param immediate Whether this Promise should run immediately
+     * @param promises The Promises to schedule in sequence
+     * @param <T> The type of the result values
+     * @return The results of the given Promises, in the same order
+     */
+    public static <T> Promise<List<T>> sequence(boolean immediate, List<? extends Promise<? extends T>> promises) {
+        return compose(immediate, promises, finisher -> new Sequencer<>(promises, finisher).drain());
     }
 
     /**
@@ -452,13 +777,37 @@ public class Promise<TResult> {
      * @return The first returned result by any of the given Promises
      */
     public static Promise<Object> any(boolean immediate, Promise<?>... promises) {
-        return new Promise<>(finisher -> {
-            for (Promise<?> p : promises) {
-                p.then(finisher::resolve);
-                p.except(finisher::reject);
+        return any(immediate, Arrays.<Promise<?>>asList(promises));
+    }
+
+    /**
+     * Schedule all given Promises, returning a Promise which is resolved as soon as
+     * any one of the given Promises has been resolved. If any Promise is rejected,
+     * the result Promise is also rejected.
+     * @param promises The Promises to schedule
+     * @param <T> The type of the result values
+     * @return The first returned result by any of the given Promises
+     */
+    public static <T> Promise<T> any(List<? extends Promise<? extends T>> promises) {
+        return any(true, promises);
+    }
+
+    /**
+     * Schedule all given Promises, returning a Promise which is resolved as soon as
+     * any one of the given Promises has been resolved. If any Promise is rejected,
+     * the result Promise is also rejected.
+     * @param immediate Whether this Promise should run immediately
+     * @param promises The Promises to schedule
+     * @param <T> The type of the result values
+     * @return The first returned result by any of the given Promises
+     */
+    public static <T> Promise<T> any(boolean immediate, List<? extends Promise<? extends T>> promises) {
+        return compose(immediate, promises, finisher -> {
+            for (Promise<? extends T> p : promises) {
+                p.whenDone(finisher::resolve, finisher::reject);
                 p.schedule();
             }
-        }, true, immediate);
+        });
     }
 
     /**
@@ -481,29 +830,132 @@ public class Promise<TResult> {
      * @return A map from input Promise to result
      */
     public static Promise<Map<Promise, Object>> all(boolean immediate, Promise<?>... promises) {
-        return new Promise<>(finisher -> {
-            Map<Promise, Object> results = new HashMap<>();
-            CountDownLatch latch = new CountDownLatch(promises.length);
-            for (Promise<?> p : promises) {
-
-                // Register success and failure handlers on the promise
-                p.then(result -> {
-                    results.put(p, result);
-                    synchronized (latch) {
-                        latch.countDown();
-                        if (latch.getCount() == 0) {
-                            finisher.resolve(results);
-                        }
-                    }
-                });
-                p.except(ex -> {
-                    finisher.reject(ex);
-                });
+        List<Promise<?>> list = Arrays.asList(promises);
+        return compose(immediate, list, finisher -> collectAll(list, toMap(list, finisher)));
+    }
 
-                // Schedule it for execution
-                p.schedule();
+    /**
+     * Schedule all given Promises, returning a Promise which is resolved as soon as
+     * all of the given Promises have been resolved. If any Promise is rejected,
+     * the resulting Promise is also rejected.
+     * @param promises The Promises to schedule
+     * @param <T> The type of the result values
+     * @return The results of the given Promises, in the same order
+     */
+    public static <T> Promise<List<T>> all(List<? extends Promise<? extends T>> promises) {
+        return all(true, promises);
+    }
+
+    /**
+     * Schedule all given Promises, returning a Promise which is resolved as soon as
+     * all of the given Promises have been resolved. If any Promise is rejected,
+     * the resulting Promise is also rejected.
+     * @param immediate Whether this Promise should run immediately
+     * @param promises The Promises to schedule
+     * @param <T> The type of the result values
+     * @return The results of the given Promises, in the same order
+     */
+    public static <T> Promise<List<T>> all(boolean immediate, List<? extends Promise<? extends T>> promises) {
+        return compose(immediate, promises, finisher -> collectAll(promises, finisher));
+    }
+
+    private static <T> void collectAll(List<? extends Promise<? extends T>> promises,
+                                       IPromiseFinisher<List<T>> finisher) {
+        Object[] results = new Object[promises.size()];
+        AtomicInteger remaining = new AtomicInteger(results.length);
+        if (results.length == 0) {
+            finisher.resolve(toList(results));
+            return;
+        }
+
+        for (int i = 0; i < results.length; i++) {
+            int index = i;
+            Promise<? extends T> p = promises.get(index);
+
+            // Register success and failure handlers on the promise. Every result has its
+            // own slot, and the last Promise to finish is guaranteed to see all of them.
+            p.whenDone(result -> {
+                results[index] = result;
+                if (remaining.decrementAndGet() == 0) {
+                    finisher.resolve(toList(results));
+                }
+            }, finisher::reject);
+
+            // Schedule it for execution
+            p.schedule();
+        }
+    }
+
+    private static <T> Promise<T> compose(boolean immediate, List<? extends Promise<?>> promises,
+                                          IPromiseBody<T> body) {
+        // Composing only registers handlers and never blocks. There is no need to
+        // hand this off to another thread if we are going to run immediately anyway.
+        Promise<T> p = new Promise<>(immediate ? null : body, true, false);
+
+        // Cancelling the composed Promise (for example when its deadline
+        // passes) cancels whichever of the given Promises are still pending.
+        p.push(new Callbacks<>(null, null, () -> {
+            for (Promise<?> q : promises) {
+                q.cancel();
             }
-        }, true, immediate);
+        }));
+
+        if (!immediate) {
+            return p;
+        }
+        try {
+            body.run(p.getFinisher());
+        } catch (Exception ex) {
+            p.getFinisher().reject(ex);
+        }
+        return p;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> toList(Object[] results) {
+        return Collections.unmodifiableList(Arrays.asList((T[]) results));
+    }
+
+    private static IPromiseFinisher<List<Object>> toMap(List<Promise<?>> promises,
+                                                        IPromiseFinisher<Map<Promise, Object>> finisher) {
+        return new IPromiseFinisher<List<Object>>() {
+            @Override
+            public void resolve(List<Object> results) {
+                Map<Promise, Object> map = new IdentityHashMap<>(results.size());
+                for (int i = 0; i < results.size(); i++) {
+                    map.put(promises.get(i), results.get(i));
+                }
+                finisher.resolve(map);
+            }
+
+            @Override
+            public void reject(Exception ex) {
+                finisher.reject(ex);
+            }
+        };
+    }
+
+    /**
+     * Create a Promise that is resolved or rejected when the {@code stage} completes.
+     * The Promise is finished from whichever thread completes the {@code stage}, and
+     * its follow-up Promises run asynchronously by default.
+     * @param stage The CompletionStage to adapt
+     * @param <TResult> The type of the result value
+     * @return The Promise
+     */
+    public static <TResult> Promise<TResult> from(CompletionStage<TResult> stage) {
+        Promise<TResult> p = new Promise<>(null, true, false);
+        stage.whenComplete((t, ex) -> {
+            if (ex == null) {
+                p.getFinisher().resolve(t);
+                return;
+            }
+
+            // The actual failure is wrapped when the stage was completed by a dependent stage.
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            p.getFinisher().reject(cause instanceof Exception ? (Exception) cause : new CompletionException(cause));
+        });
+        return p;
     }
 
     /**
@@ -514,9 +966,8 @@ public class Promise<TResult> {
      */
     public static <TResult> Promise<TResult> resolve(TResult t) {
         Promise<TResult> p = new Promise<>(null, false, false);
-        p.state = RESOLVED;
-        p.latch.decrement();
-        p.result = t;
+        p.settle(RESOLVED, t, null);
+        p.finished();
         return p;
     }
 
@@ -528,22 +979,346 @@ public class Promise<TResult> {
      */
     public static <TResult> Promise<TResult> reject(Exception ex) {
         Promise<TResult> p = new Promise<>(null, false, false);
-        p.state = REJECTED;
-        p.latch.decrement();
-        p.exception = ex;
+        p.settle(REJECTED, null, ex);
+        p.finished();
         return p;
     }
 
-    public static void setSyncRunner(Consumer<Runnable> c) {
-        SYNC_RUNNER = c;
+    /**
+     * Set the Executor that runs synchronous Promise bodies.
+     * @param e The Executor to use
+     */
+    public static void setSyncRunner(Executor e) {
+        SYNC_RUNNER = e;
+    }
+
+    /**
+     * Set the Executor that runs asynchronous Promise bodies.
+     * @param e The Executor to use
+     */
+    public static void setAsyncRunner(Executor e) {
+        ASYNC_RUNNER = e;
     }
 
-    public static void setAsyncRunner(Consumer<Runnable> c) {
-        ASYNC_RUNNER = c;
+    /**
+     * Get the Executor that runs synchronous Promise bodies.
+     * @return The synchronous Executor
+     */
+    public static Executor getSyncRunner() {
+        return SYNC_RUNNER;
+    }
+
+    /**
+     * Get the Executor that runs asynchronous Promise bodies.
+     * When not set explicitly, this is a {@link ForkJoinRunner}.
+     * @return The asynchronous Executor
+     */
+    public static Executor getAsyncRunner() {
+        return ASYNC_RUNNER;
     }
 
     static {
         SYNC_RUNNER = r -> r.run();
-        ASYNC_RUNNER = r -> new Thread(r).start();
+        ASYNC_RUNNER = new ForkJoinRunner();
+    }
+
+    private static final class Deadlines {
+
+        private static final ScheduledThreadPoolExecutor TIMER;
+
+        static {
+            TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread thread = new Thread(r, "EllirionUtil-Deadlines");
+                thread.setDaemon(true);
+                return thread;
+            });
+            TIMER.setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    private static final class Sequencer<T> {
+
+        private final List<? extends Promise<? extends T>> promises;
+        private final IPromiseFinisher<List<T>> finisher;
+        private final Object[] results;
+        private final AtomicInteger wip;
+        private volatile int finished;
+        private int index;
+        private boolean registered;
+        private boolean resolved;
+
+        Sequencer(final List<? extends Promise<? extends T>> promises, final IPromiseFinisher<List<T>> finisher) {
+            this.promises = promises;
+            this.finisher = finisher;
+            this.results = new Object[promises.size()];
+            this.wip = new AtomicInteger();
+            this.finished = -1;
+            this.index = 0;
+            this.registered = false;
+            this.resolved = false;
+        }
+
+        void drain() {
+            // Only one thread advances the sequence at a time. Promises that finish while we are
+            // advancing (like synchronous ones finishing during schedule()) just make us loop
+            // once more, instead of recursing once for every Promise in the sequence.
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+
+            do {
+                while (index < results.length) {
+                    if (finished >= index) {
+                        index++;
+                        registered = false;
+                        continue;
+                    }
+                    if (registered) {
+                        break;
+                    }
+
+                    // Register our handlers before scheduling, so a Promise that is
+                    // rejected right away does not consider its failure unhandled.
+                    int current = index;
+                    Promise<? extends T> p = promises.get(current);
+                    registered = true;
+                    p.whenDone(result -> {
+                        results[current] = result;
+                        finished = current;
+                        drain();
+                    }, finisher::reject);
+                    p.schedule();
+                }
+
+                if (index == results.length && !resolved) {
+                    resolved = true;
+                    finisher.resolve(toList(results));
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+    }
+
+    private abstract static class Handler<T> {
+
+        private Handler<T> next;
+
+        abstract void resolved(T t);
+
+        abstract void rejected(Exception ex);
+
+        void cancelled(Exception ex) {
+            rejected(ex);
+        }
+
+        boolean handlesRejection() {
+            return true;
+        }
+    }
+
+    private static final class Callbacks<T> extends Handler<T> {
+
+        private final Consumer<? super T> onResolve;
+        private final Consumer<Exception> onReject;
+        private final Runnable onCancel;
+        private final boolean handlesRejection;
+
+        Callbacks(final Consumer<? super T> onResolve, final Consumer<Exception> onReject, final Runnable onCancel) {
+            this(onResolve, onReject, onCancel, onReject != null);
+        }
+
+        Callbacks(final Consumer<? super T> onResolve, final Consumer<Exception> onReject, final Runnable onCancel,
+                  final boolean handlesRejection) {
+            this.onResolve = onResolve;
+            this.onReject = onReject;
+            this.onCancel = onCancel;
+            this.handlesRejection = handlesRejection;
+        }
+
+        @Override
+        void resolved(T t) {
+            if (onResolve != null) {
+                onResolve.accept(t);
+            }
+        }
+
+        @Override
+        void rejected(Exception ex) {
+            if (onReject != null) {
+                onReject.accept(ex);
+            }
+        }
+
+        @Override
+        void cancelled(Exception ex) {
+            if (onCancel != null) {
+                onCancel.run();
+            } else {
+                rejected(ex);
+            }
+        }
+
+        @Override
+        boolean handlesRejection() {
+            return handlesRejection;
+        }
+    }
+
+    /**
+     * The link between a Promise and a follow-up Promise created through then() or except().
+     * It is the handler on the parent, and the body, finisher and scheduled task of the follow-up.
+     */
+    private static final class Continuation<T, N> extends Handler<T>
+            implements IPromiseBody<N>, IPromiseFinisher<N>, Runnable {
+
+        private final Promise<T> parent;
+        private final Promise<N> next;
+        private final IPromiseContinuer<T, N> onResolve;
+        private final IPromiseContinuer<Exception, N> onReject;
+
+        Continuation(final Promise<T> parent, final Promise<N> next,
+                     final IPromiseContinuer<T, N> onResolve, final IPromiseContinuer<Exception, N> onReject) {
+            this.parent = parent;
+            this.next = next;
+            this.onResolve = onResolve;
+            this.onReject = onReject;
+            next.runner = this;
+            next.finisher = this;
+        }
+
+        @Override
+        void resolved(T t) {
+            if (onResolve != null) {
+                next.runBody();
+                return;
+            }
+
+            // An except() follow-up is never executed when its parent resolves,
+            // but it should not keep anyone waiting on the parent either.
+            next.releaseParent();
+        }
+
+        @Override
+        void rejected(Exception ex) {
+            if (onResolve != null) {
+                next.runFailure(ex);
+            } else {
+                next.runBody();
+            }
+        }
+
+        @Override
+        void cancelled(Exception ex) {
+            next.cancel();
+        }
+
+        @Override
+        public void run(IPromiseFinisher<N> finisher) {
+            // Only used if someone explicitly invokes our body; normally we are ran as a task.
+            try {
+                finisher.resolve(onResolve != null ? onResolve.run(parent.result) : onReject.run(parent.exception));
+            } catch (Exception ex) {
+                finisher.reject(ex);
+            }
+        }
+
+        @Override
+        public void run() {
+            // We may have been cancelled while waiting to be ran.
+            if (next.state != PENDING) {
+                return;
+            }
+
+            // The continuer itself is never ran as part of a fused task, since it may block
+            // on anything. Only the finishing of our Promise is, so follow-ups can join in.
+            Fusion fusion = FUSION.get();
+            Executor outer = fusion.runner;
+            fusion.runner = null;
+            N n = null;
+            Exception failure = null;
+            try {
+                n = onResolve != null ? onResolve.run(parent.result) : onReject.run(parent.exception);
+            } catch (Exception ex) {
+                failure = ex;
+            } finally {
+                fusion.runner = outer;
+            }
+
+            // Asynchronous follow-ups are never fused, so we simply finish.
+            if (next.async) {
+                finish(n, failure);
+                return;
+            }
+
+            // If we were ran as part of a task on the synchronous runner, that task runs our follow-up.
+            if (outer == SYNC_RUNNER) {
+                finish(n, failure);
+                return;
+            }
+
+            // Otherwise, we are that task, and run the chain of follow-ups one after the other.
+            Runnable pending = fusion.next;
+            fusion.runner = SYNC_RUNNER;
+            fusion.next = null;
+            try {
+                finish(n, failure);
+                for (Runnable r = fusion.next; r != null; r = fusion.next) {
+                    fusion.next = null;
+                    r.run();
+                }
+            } finally {
+                fusion.runner = outer;
+                fusion.next = pending;
+            }
+        }
+
+        private void finish(N n, Exception failure) {
+            if (failure != null) {
+                next.handleReject(failure);
+                return;
+            }
+            try {
+                next.handleResolve(n);
+            } catch (Exception ex) {
+                next.handleReject(ex);
+            }
+        }
+
+        @Override
+        public void resolve(N n) {
+            next.handleResolve(n);
+        }
+
+        @Override
+        public void reject(Exception ex) {
+            next.handleReject(ex);
+        }
+    }
+
+    private static final class Finisher<T> implements IPromiseFinisher<T> {
+
+        private final Promise<T> promise;
+
+        Finisher(final Promise<T> promise) {
+            this.promise = promise;
+        }
+
+        @Override
+        public void resolve(T t) {
+            promise.handleResolve(t);
+        }
+
+        @Override
+        public void reject(Exception ex) {
+            promise.handleReject(ex);
+        }
+    }
+
+    private static final class Fusion {
+
+        // Marks that the Promise finishing right now has several follow-ups, which are not fused.
+        private static final Runnable SPLIT = () -> { };
+
+        private Executor runner;
+        private Runnable next;
     }
 }
@@ -0,0 +1,126 @@
+package com.ellirion.util.async;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class VirtualThreadRunner implements Executor {
+
+    private static final ThreadFactory FACTORY = createFactory("EllirionUtil-Virtual-");
+
+    private final ExecutorService executor;
+    private final LongAdder submitted;
+    private final LongAdder completed;
+
+    private VirtualThreadRunner(final ExecutorService executor) {
+        this.executor = executor;
+        this.submitted = new LongAdder();
+        this.completed = new LongAdder();
+    }
+
+    /**
+     * Checks if the running JVM supports virtual threads.
+     * @return Whether virtual threads are supported
+     */
+    public static boolean isSupported() {
+        return FACTORY != null;
+    }
+
+    /**
+     * Create a runner that starts a new virtual thread for every task. Blocking
+     * in {@link Promise#await()} or {@link Counter#await(int)} only parks the
+     * virtual thread, so deeply nested Promises and Transactions do not need a
+     * platform thread per level.
+     * @return The VirtualThreadRunner
+     * @throws UnsupportedOperationException when the JVM does not support virtual threads
+     */
+    public static VirtualThreadRunner create() {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+        }
+        try {
+            Method m = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return new VirtualThreadRunner((ExecutorService) m.invoke(null, FACTORY));
+        } catch (ReflectiveOperationException ex) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM", ex);
+        }
+    }
+
+    /**
+     * Create a VirtualThreadRunner if the JVM supports it, or return {@code fallback} otherwise.
+     * @param fallback The Executor to use on JVMs without virtual threads
+     * @return The Executor to use
+     */
+    public static Executor createOrElse(Executor fallback) {
+        return isSupported() ? create() : fallback;
+    }
+
+    /**
+     * Create a VirtualThreadRunner if the JVM supports it, or a {@link ForkJoinRunner} otherwise.
+     * @return The Executor to use
+     */
+    public static Executor createOrFallback() {
+        return isSupported() ? create() : new ForkJoinRunner();
+    }
+
+    @Override
+    public void execute(Runnable r) {
+        submitted.increment();
+        executor.execute(() -> {
+            try {
+                r.run();
+            } finally {
+                completed.increment();
+            }
+        });
+    }
+
+    /**
+     * Gets the amount of tasks that have been submitted but have not finished yet.
+     * @return The amount of running tasks
+     */
+    public long getRunningTaskCount() {
+        return submitted.sum() - completed.sum();
+    }
+
+    /**
+     * Gets the amount of tasks submitted to this runner.
+     * @return The amount of submitted tasks
+     */
+    public long getSubmittedTaskCount() {
+        return submitted.sum();
+    }
+
+    /**
+     * Gets the amount of tasks this runner has finished running.
+     * @return The amount of completed tasks
+     */
+    public long getCompletedTaskCount() {
+        return completed.sum();
+    }
+
+    /**
+     * Stops accepting new tasks. Tasks that are already running are allowed to finish.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static ThreadFactory createFactory(String prefix) {
+        // This library targets Java 8, so we cannot call Thread.ofVirtual() directly.
+        // Look it up at runtime instead, and treat any failure as 'not supported'.
+        // This includes Java 19 and 20 without preview features enabled, where
+        // the invocation fails with an UnsupportedOperationException.
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            return null;
+        }
+    }
+}
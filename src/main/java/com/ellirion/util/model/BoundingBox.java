@@ -92,6 +92,25 @@ public class BoundingBox {
         return x1 <= bb.x2 && bb.x1 <= x2 && y1 <= bb.y2 && bb.y1 <= y2 && z1 <= bb.z2 && bb.z1 <= z2;
     }
 
+    /**
+     * Checks if the BoundingBox {@code bb} lies completely within the current BoundingBox.
+     * @param bb The BoundingBox to check
+     * @return Whether {@code bb} lies within the bounds of this BoundingBox
+     */
+    public boolean contains(final BoundingBox bb) {
+        return x1 <= bb.x1 && bb.x2 <= x2 && y1 <= bb.y1 && bb.y2 <= y2 && z1 <= bb.z1 && bb.z2 <= z2;
+    }
+
+    /**
+     * Gets the smallest BoundingBox that contains both the current BoundingBox and {@code bb}.
+     * @param bb The BoundingBox to combine with
+     * @return The combined BoundingBox
+     */
+    public BoundingBox union(final BoundingBox bb) {
+        return new BoundingBox(Math.min(x1, bb.x1), Math.min(y1, bb.y1), Math.min(z1, bb.z1),
+                               Math.max(x2, bb.x2), Math.max(y2, bb.y2), Math.max(z2, bb.z2));
+    }
+
     /**
      * Translates the BoundingBox to local coordinates.
      * @return A new BoundingBox with local coordinates
@@ -6,6 +6,7 @@ import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
+import com.ellirion.util.BlockChangePriority;
 import com.ellirion.util.WorldHelper;
 
 public class SetBlockCommand implements CommandExecutor {
@@ -17,7 +18,7 @@ public class SetBlockCommand implements CommandExecutor {
 
             Location loc = player.getLocation();
 
-            WorldHelper.setBlock(loc, Material.STONE, (byte) 0);
+            WorldHelper.setBlock(loc, Material.STONE, (byte) 0, BlockChangePriority.INTERACTIVE, player.getUniqueId());
             return true;
         }
         return false;
@@ -0,0 +1,231 @@
+package com.ellirion.util.transact;
+
+import com.ellirion.util.async.IPromiseFinisher;
+import com.ellirion.util.async.Promise;
+import com.ellirion.util.async.PromiseState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A {@link SequenceTransaction} that only keeps the order of children that conflict with each other.
+ * Two children conflict when their {@link Transaction#getFootprint() footprints} intersect, or when
+ * either footprint is unknown. A child is applied as soon as every earlier child it conflicts with
+ * has been applied, so children in different regions are applied at the same time. Reverting happens
+ * in the opposite order: a child is reverted once every later child it conflicts with has been reverted.
+ * A child does not wait for earlier children that another earlier child already waits for, so
+ * scheduling takes about as long as the amount of children.
+ * Just like a SequenceTransaction, it either applies all children or none of them.
+ */
+public class DependencyTransaction extends SequenceTransaction {
+
+    /**
+     * Construct a new DependencyTransaction.
+     */
+    public DependencyTransaction() {
+        super();
+    }
+
+    /**
+     * Construct a new DependencyTransaction using {@code transactions}
+     * as the initial children.
+     * @param transactions The initial children
+     */
+    public DependencyTransaction(final Transaction... transactions) {
+        super(transactions);
+    }
+
+    /**
+     * Construct a new DependencyTransaction using {@code transactions}
+     * as the initial children, specifying if this DependencyTransaction is
+     * applied or not.
+     * @param applied Whether this DependencyTransaction is applied or not
+     * @param transactions The initial children
+     */
+    public DependencyTransaction(final boolean applied, final Transaction... transactions) {
+        super(applied, transactions);
+    }
+
+    @Override
+    protected Promise<Boolean> applier() {
+        // Prevent our children from being altered.
+        finalizeChildren();
+
+        // Every child that finishes starts the children that were waiting for it. The body
+        // returns right away, so no thread is held while our children run.
+        return new Promise<>(finisher -> {
+
+            // Before we start applying our child transactions, we need to wait for
+            // them all be finished executing whatever they were doing.
+            awaitChildren(finisher, () -> {
+                boolean[] all = new boolean[getChildren().size()];
+                Arrays.fill(all, true);
+                run(finisher, all, true, promises -> {
+                    boolean[] succeeded = new boolean[all.length];
+                    boolean failed = false;
+                    Exception exception = null;
+                    for (int i = 0; i < promises.size(); i++) {
+                        Promise<Boolean> child = promises.get(i);
+                        if (child.getState() == PromiseState.REJECTED) {
+                            exception = child.getException();
+                            failed = true;
+                        } else if (Boolean.TRUE.equals(child.getResult())) {
+                            succeeded[i] = true;
+                        } else {
+                            failed = true;
+                        }
+                    }
+
+                    // Return success if all children succeeded.
+                    if (!failed) {
+                        finisher.resolve(true);
+                        return;
+                    }
+
+                    // Otherwise, roll back the children that did succeed. If a child threw an
+                    // exception, propagate it upwards. Otherwise, our result is a complete and utter failure.
+                    Exception cause = exception;
+                    revert(finisher, succeeded, () -> {
+                        if (cause != null) {
+                            finisher.reject(cause);
+                        } else {
+                            finisher.resolve(false);
+                        }
+                    });
+                });
+            });
+        }, true);
+    }
+
+    @Override
+    protected Promise<Boolean> reverter() {
+        return new Promise<>(finisher -> {
+
+            // Before we start reverting our child transactions, we need to wait for
+            // them all be finished executing whatever they were doing.
+            awaitChildren(finisher, () -> {
+                boolean[] all = new boolean[getChildren().size()];
+                Arrays.fill(all, true);
+                revert(finisher, all, () -> finisher.resolve(true));
+            });
+        }, true);
+    }
+
+    /**
+     * Checks if children of this DependencyTransaction can conflict with each other at all.
+     * If not, all children are applied at the same time, without looking at their footprints.
+     * @return Whether children can conflict
+     */
+    protected boolean hasConflicts() {
+        return true;
+    }
+
+    private void revert(IPromiseFinisher<Boolean> finisher, boolean[] which, Runnable done) {
+        run(finisher, which, false, promises -> {
+            for (Promise<Boolean> child : promises) {
+                // If the child threw an exception, propagate it upwards.
+                if (child.getState() == PromiseState.REJECTED) {
+                    finisher.reject(child.getException());
+                    return;
+                }
+
+                // If the child failed to revert, also propagate it upwards.
+                if (!Boolean.TRUE.equals(child.getResult())) {
+                    finisher.reject(new IllegalStateException("Revert failed", child.getException()));
+                    return;
+                }
+            }
+            done.run();
+        });
+    }
+
+    private void run(IPromiseFinisher<Boolean> finisher, boolean[] which, boolean apply,
+                     Consumer<List<Promise<Boolean>>> done) {
+        // Nothing is started until the whole graph has been built and is being waited for,
+        // so no child can finish before anyone is listening to it.
+        Promise<Boolean> start = new Promise<>();
+        List<Promise<Boolean>> promises = schedule(which, apply, start);
+        whenAll(promises, finisher, () -> done.accept(promises));
+        start.getFinisher().resolve(true);
+    }
+
+    private List<Promise<Boolean>> schedule(boolean[] which, boolean apply, Promise<Boolean> start) {
+        List<Transaction> children = getChildren();
+        int size = children.size();
+        boolean conflicts = hasConflicts();
+
+        // When applying, children go after the earlier children they conflict with.
+        // When reverting, they go after the later ones. Walking the children in that
+        // order means all of a child's dependencies have been scheduled before it.
+        // Going after the ones in the frontier is enough to go after all of them.
+        Frontier<Promise<Boolean>> frontier = new Frontier<>();
+        List<Promise<Boolean>> promises = new ArrayList<>(Collections.nCopies(size, null));
+        for (int n = 0; n < size; n++) {
+            int i = apply ? n : size - 1 - n;
+            Transaction child = children.get(i);
+            if (!which[i]) {
+                promises.set(i, Promise.resolve(true));
+                continue;
+            }
+
+            List<Promise<Boolean>> dependencies = new ArrayList<>();
+            dependencies.add(start);
+            Promise<Boolean> promise = new Promise<>();
+            if (conflicts) {
+                dependencies.addAll(frontier.add(child.getFootprint(), promise));
+            }
+            after(dependencies, apply ? child::apply : child::revert, promise.getFinisher());
+            promises.set(i, promise);
+        }
+        return promises;
+    }
+
+    private static void after(List<Promise<Boolean>> dependencies, Supplier<Promise<Boolean>> performer,
+                              IPromiseFinisher<Boolean> finisher) {
+        // The finisher resolves with false without performing anything if any
+        // of the dependencies failed, rather than rejecting along with it.
+        whenAll(dependencies, finisher, () -> {
+            for (Promise<Boolean> dependency : dependencies) {
+                if (dependency.getState() == PromiseState.REJECTED || !Boolean.TRUE.equals(dependency.getResult())) {
+                    finisher.resolve(false);
+                    return;
+                }
+            }
+
+            Promise<Boolean> performed;
+            try {
+                performed = performer.get();
+            } catch (Exception ex) {
+                finisher.reject(ex);
+                return;
+            }
+            whenFinished(performed, finisher, () -> {
+                if (performed.getState() == PromiseState.REJECTED) {
+                    finisher.reject(performed.getException());
+                } else {
+                    finisher.resolve(Boolean.TRUE.equals(performed.getResult()));
+                }
+            });
+        });
+    }
+
+    private static void whenAll(List<Promise<Boolean>> promises, IPromiseFinisher<Boolean> finisher, Runnable done) {
+        // Count down once for every Promise that finishes, in any way, and once for ourselves,
+        // so that we also get to run done when there are no Promises at all.
+        AtomicInteger remaining = new AtomicInteger(promises.size() + 1);
+        Runnable countDown = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                done.run();
+            }
+        };
+        for (Promise<Boolean> promise : promises) {
+            whenFinished(promise, finisher, countDown);
+        }
+        countDown.run();
+    }
+}
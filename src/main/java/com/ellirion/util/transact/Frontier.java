@@ -0,0 +1,174 @@
+package com.ellirion.util.transact;
+
+import com.ellirion.util.model.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The children of a {@link DependencyTransaction} that have been scheduled so far, without those that
+ * are covered by a later child. A child is covered when a later child conflicts with everything it
+ * conflicts with, and has to go after it. A new child then only has to go after the children in the
+ * frontier it conflicts with, since it goes after every covered child through one of those.
+ * <p>
+ * The footprints are kept in grids with cells of increasing size, and every footprint goes in the first
+ * grid whose cells are at least as large as it is. Finding the children a footprint conflicts with
+ * therefore only looks at the children nearby, rather than at all of them.
+ * @param <T> The type of value the children are remembered by
+ */
+class Frontier<T> {
+
+    // Every grid has cells 16 times as large as the one before, the last one being larger than any world.
+    private static final int GRIDS = 8;
+    private static final int GRID_SHIFT = 4;
+
+    private final List<Map<Long, List<Entry<T>>>> grids;
+    private Entry<T> barrier;
+    private int visit;
+
+    /**
+     * Construct an empty Frontier.
+     */
+    Frontier() {
+        grids = new ArrayList<>();
+        for (int i = 0; i < GRIDS; i++) {
+            grids.add(new HashMap<>());
+        }
+        barrier = null;
+        visit = 0;
+    }
+
+    /**
+     * Add a child to this Frontier, and get the children it has to go after.
+     * @param footprint The footprint of the child, or null if it is unknown
+     * @param value The value to remember the child by
+     * @return The values of the children the child has to go after
+     */
+    List<T> add(BoundingBox footprint, T value) {
+        List<T> after = new ArrayList<>();
+        if (barrier != null) {
+            after.add(barrier.value);
+        }
+        visit++;
+
+        // A child that could be anywhere goes after all others, and covers all of them.
+        if (footprint == null) {
+            for (Map<Long, List<Entry<T>>> grid : grids) {
+                for (List<Entry<T>> cell : grid.values()) {
+                    for (Entry<T> entry : cell) {
+                        if (entry.visit != visit) {
+                            entry.visit = visit;
+                            after.add(entry.value);
+                        }
+                    }
+                }
+                grid.clear();
+            }
+            barrier = new Entry<>(null, value);
+            return after;
+        }
+
+        List<Entry<T>> covered = new ArrayList<>();
+        for (int g = 0; g < GRIDS; g++) {
+            Map<Long, List<Entry<T>>> grid = grids.get(g);
+            if (grid.isEmpty()) {
+                continue;
+            }
+
+            // Look in every cell the footprint touches, or in every cell there is if there are fewer of those.
+            int shift = g * GRID_SHIFT;
+            long cells = (long) ((footprint.getX2() >> shift) - (footprint.getX1() >> shift) + 1) *
+                         ((footprint.getY2() >> shift) - (footprint.getY1() >> shift) + 1) *
+                         ((footprint.getZ2() >> shift) - (footprint.getZ1() >> shift) + 1);
+            if (cells > grid.size()) {
+                for (List<Entry<T>> cell : grid.values()) {
+                    check(cell, footprint, after, covered);
+                }
+            } else {
+                forEachCell(footprint, shift, key -> check(grid.get(key), footprint, after, covered));
+            }
+        }
+
+        for (Entry<T> entry : covered) {
+            remove(entry);
+        }
+        insert(new Entry<>(footprint, value));
+        return after;
+    }
+
+    private void check(List<Entry<T>> cell, BoundingBox footprint, List<T> after, List<Entry<T>> covered) {
+        if (cell == null) {
+            return;
+        }
+        for (Entry<T> entry : cell) {
+            // A footprint can be in several cells, but we only look at it once.
+            if (entry.visit == visit) {
+                continue;
+            }
+            entry.visit = visit;
+            if (footprint.intersects(entry.footprint)) {
+                after.add(entry.value);
+                if (footprint.contains(entry.footprint)) {
+                    covered.add(entry);
+                }
+            }
+        }
+    }
+
+    private void insert(Entry<T> entry) {
+        Map<Long, List<Entry<T>>> grid = grids.get(gridOf(entry.footprint));
+        forEachCell(entry.footprint, gridOf(entry.footprint) * GRID_SHIFT,
+                    key -> grid.computeIfAbsent(key, k -> new ArrayList<>(1)).add(entry));
+    }
+
+    private void remove(Entry<T> entry) {
+        Map<Long, List<Entry<T>>> grid = grids.get(gridOf(entry.footprint));
+        forEachCell(entry.footprint, gridOf(entry.footprint) * GRID_SHIFT, key -> {
+            List<Entry<T>> cell = grid.get(key);
+            cell.remove(entry);
+            if (cell.isEmpty()) {
+                grid.remove(key);
+            }
+        });
+    }
+
+    private static int gridOf(BoundingBox footprint) {
+        int size = Math.max(footprint.getWidth(), Math.max(footprint.getHeight(), footprint.getDepth()));
+        int g = 0;
+        while (g < GRIDS - 1 && (1L << (g * GRID_SHIFT)) < size) {
+            g++;
+        }
+        return g;
+    }
+
+    private static void forEachCell(BoundingBox footprint, int shift, ICellConsumer consumer) {
+        for (int x = footprint.getX1() >> shift; x <= footprint.getX2() >> shift; x++) {
+            for (int y = footprint.getY1() >> shift; y <= footprint.getY2() >> shift; y++) {
+                for (int z = footprint.getZ1() >> shift; z <= footprint.getZ2() >> shift; z++) {
+                    // Cells that end up with the same key only cost us a few extra footprints to check.
+                    consumer.accept(((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF));
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ICellConsumer {
+        void accept(long key);
+    }
+
+    private static class Entry<T> {
+
+        private final BoundingBox footprint;
+        private final T value;
+        private int visit;
+
+        Entry(final BoundingBox footprint, final T value) {
+            this.footprint = footprint;
+            this.value = value;
+            this.visit = 0;
+        }
+    }
+}
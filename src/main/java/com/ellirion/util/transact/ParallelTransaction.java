@@ -0,0 +1,43 @@
+package com.ellirion.util.transact;
+
+/**
+ * A {@link DependencyTransaction} whose children never conflict with each other, wherever they are.
+ * All children are therefore applied and reverted concurrently rather than one after another, so
+ * children that change the same blocks leave them in no particular order.
+ * Just like a SequenceTransaction, it either applies all children or none of them.
+ */
+public class ParallelTransaction extends DependencyTransaction {
+
+    /**
+     * Construct a new ParallelTransaction.
+     */
+    public ParallelTransaction() {
+        super();
+    }
+
+    /**
+     * Construct a new ParallelTransaction using {@code transactions}
+     * as the initial children.
+     * @param transactions The initial children
+     */
+    public ParallelTransaction(final Transaction... transactions) {
+        super(transactions);
+    }
+
+    /**
+     * Construct a new ParallelTransaction using {@code transactions}
+     * as the initial children, specifying if this ParallelTransaction is
+     * applied or not.
+     * @param applied Whether this ParallelTransaction is applied or not
+     * @param transactions The initial children
+     */
+    public ParallelTransaction(final boolean applied, final Transaction... transactions) {
+        super(applied, transactions);
+    }
+
+    @Override
+    protected boolean hasConflicts() {
+        // Our children are independent by definition, wherever they are.
+        return false;
+    }
+}
@@ -3,6 +3,8 @@ package com.ellirion.util.transact;
 import lombok.Getter;
 import com.ellirion.util.async.IPromiseFinisher;
 import com.ellirion.util.async.Promise;
+import com.ellirion.util.async.PromiseState;
+import com.ellirion.util.model.BoundingBox;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -72,63 +74,49 @@ public class SequenceTransaction extends Transaction {
         return children.contains(child);
     }
 
+    @Override
+    public synchronized BoundingBox getFootprint() {
+        // If we don't know where any one of our children goes, we don't know where we go either.
+        BoundingBox footprint = null;
+        for (Transaction child : children) {
+            BoundingBox bb = child.getFootprint();
+            if (bb == null) {
+                return null;
+            }
+            footprint = footprint == null ? bb : footprint.union(bb);
+        }
+        return footprint;
+    }
+
     private synchronized void assertNotFinalized() {
         if (finalized) {
             throw new RuntimeException("Attempt to modify children of a finalized SequenceTransaction");
         }
     }
 
+    /**
+     * Prevent the children of this SequenceTransaction from being altered.
+     */
+    synchronized void finalizeChildren() {
+        finalized = true;
+    }
+
     @Override
     protected Promise<Boolean> applier() {
         // Prevent our children from being altered.
-        synchronized (this) {
-            finalized = true;
-        }
+        finalizeChildren();
 
+        // Rather than waiting for each child in a loop, every child that finishes
+        // starts the next step. The body returns right away, so no thread is held
+        // while our children run.
         return new Promise<>(finisher -> {
 
             // Before we start applying our child transactions, we need to wait for
             // them all be finished executing whatever they were doing.
-            awaitChildren();
-
-            int index;
-            boolean failed = false;
-
-            // From the front, start going through our child transactions.
-            for (index = 0; index < children.size(); index++) {
-                Promise<Boolean> child = children.get(index).apply();
-
-                // If the child threw an exception, propagate it upwards.
-                if (!child.await()) {
-                    finisher.reject(child.getException());
-                    return;
-                }
-
-                // Otherwise, the child ran without throwing an exception.
-                // However, this does not mean it was SUCCESSFUL.
-                // We need to check the child's result for that.
-
-                // If the child failed to apply, prepare for rollback.
-                if (!child.getResult()) {
-                    failed = true;
-                    index--;
-                    break;
-                }
-
-                // If it succeeded, we proceed to the next child.
-            }
-
-            // Return success if we didn't fail.
-            if (!failed) {
-                finisher.resolve(true);
-                return;
-            }
-
-            // Roll back any changes upon failure.
-            revertFrom(finisher, index);
-
-            // Our result is a complete and utter failure.
-            finisher.resolve(false);
+            awaitChildren(finisher, () -> {
+                // From the front, start going through our child transactions.
+                applyFrom(finisher, 0);
+            });
         }, true);
     }
 
@@ -138,31 +126,94 @@ public class SequenceTransaction extends Transaction {
 
             // Before we start reverting our child transactions, we need to wait for
             // them all be finished executing whatever they were doing.
-            awaitChildren();
-
-            // From the back, start going through our child transactions.
-            revertFrom(finisher, children.size() - 1);
-
-            // We succeeded in reverting all our actions.
-            finisher.resolve(true);
+            awaitChildren(finisher, () -> {
+                // From the back, start going through our child transactions.
+                // If we get through all of them, we succeeded in reverting all our actions.
+                revertFrom(finisher, children.size() - 1, () -> finisher.resolve(true));
+            });
         }, true);
     }
 
-    private void awaitChildren() {
-        for (Transaction child : children) {
-            child.await();
+    /**
+     * Run {@code next} once all children have finished whatever they were doing. If a child does not
+     * end up in the same state as this SequenceTransaction, {@code finisher} is rejected instead.
+     * @param finisher The finisher of the operation that is waiting
+     * @param next The step to run once all children are done
+     */
+    protected void awaitChildren(IPromiseFinisher<Boolean> finisher, Runnable next) {
+        awaitFrom(finisher, 0, next);
+    }
+
+    private void awaitFrom(IPromiseFinisher<Boolean> finisher, int index, Runnable next) {
+        if (index == children.size()) {
+            next.run();
+            return;
+        }
+
+        Transaction child = children.get(index);
+        whenFinished(child.whenSettled(), finisher, () -> {
             if (child.isApplied() != isApplied()) {
-                throw new RuntimeException("While awaiting children, a child ended in an unexpected state");
+                finisher.reject(new RuntimeException("While awaiting children, a child ended in an unexpected state"));
+                return;
             }
+            awaitFrom(finisher, index + 1, next);
+        });
+    }
+
+    private void applyFrom(IPromiseFinisher<Boolean> finisher, int index) {
+        // Return success if we got through all children.
+        if (index == children.size()) {
+            finisher.resolve(true);
+            return;
+        }
+
+        Promise<Boolean> child;
+        try {
+            child = children.get(index).apply();
+        } catch (Exception ex) {
+            finisher.reject(ex);
+            return;
         }
+
+        whenFinished(child, finisher, () -> {
+            // If the child threw an exception, propagate it upwards.
+            if (child.getState() == PromiseState.REJECTED) {
+                finisher.reject(child.getException());
+                return;
+            }
+
+            // Otherwise, the child ran without throwing an exception.
+            // However, this does not mean it was SUCCESSFUL.
+            // We need to check the child's result for that.
+
+            // If it succeeded, we proceed to the next child. A child without a result did not succeed.
+            if (Boolean.TRUE.equals(child.getResult())) {
+                applyFrom(finisher, index + 1);
+                return;
+            }
+
+            // Roll back any changes upon failure. Our result is a complete and utter failure.
+            revertFrom(finisher, index - 1, () -> finisher.resolve(false));
+        });
     }
 
-    private void revertFrom(IPromiseFinisher<Boolean> finisher, int index) {
-        for (; index >= 0; index--) {
-            Promise<Boolean> child = children.get(index).revert();
+    private void revertFrom(IPromiseFinisher<Boolean> finisher, int index, Runnable done) {
+        if (index < 0) {
+            done.run();
+            return;
+        }
 
+        Promise<Boolean> child;
+        try {
+            child = children.get(index).revert();
+        } catch (Exception ex) {
+            finisher.reject(ex);
+            return;
+        }
+
+        whenFinished(child, finisher, () -> {
             // If the child threw an exception, propagate it upwards.
-            if (!child.await()) {
+            if (child.getState() == PromiseState.REJECTED) {
                 finisher.reject(child.getException());
                 return;
             }
@@ -172,12 +223,13 @@ public class SequenceTransaction extends Transaction {
             // We need to check the child's result for that.
 
             // If the child failed to revert, also propagate it upwards.
-            if (!child.getResult()) {
+            if (!Boolean.TRUE.equals(child.getResult())) {
                 finisher.reject(new IllegalStateException("Revert failed", child.getException()));
                 return;
             }
 
             // If it succeeded, we proceed to the next child.
-        }
+            revertFrom(finisher, index - 1, done);
+        });
     }
 }
@@ -4,14 +4,17 @@ import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import com.ellirion.util.async.Counter;
+import com.ellirion.util.async.IPromiseFinisher;
 import com.ellirion.util.async.Promise;
+import com.ellirion.util.model.BoundingBox;
 
 import java.util.function.Supplier;
 
 public abstract class Transaction {
 
     private Counter latch;
-    @Getter private Promise<Boolean> promise;
+    @Getter private volatile Promise<Boolean> promise;
+    private volatile Promise<Boolean> settled;
     @Getter @Setter(AccessLevel.PROTECTED) private boolean applied;
 
     /**
@@ -29,6 +32,7 @@ public abstract class Transaction {
     protected Transaction(final boolean applied) {
         this.latch = new Counter(applied ? 1 : 0);
         this.promise = Promise.resolve(true);
+        this.settled = Promise.resolve(true);
         this.applied = applied;
     }
 
@@ -44,12 +48,21 @@ public abstract class Transaction {
      */
     protected abstract Promise<Boolean> reverter();
 
+    /**
+     * Gets the region this Transaction changes. Transactions whose footprints don't intersect
+     * are independent of each other, and may be applied at the same time.
+     * @return The footprint, or null if it is not known, in which case it conflicts with every other Transaction
+     */
+    public BoundingBox getFootprint() {
+        return null;
+    }
+
     /**
      * Apply this transaction.
      * @return Whether the operation succeeded or not.
      */
     public final Promise<Boolean> apply() {
-        return perform(this::applier, true);
+        return perform(this::applier, true, false);
     }
 
     /**
@@ -57,10 +70,19 @@ public abstract class Transaction {
      * @return Whether the operation succeeded or not.
      */
     public final Promise<Boolean> revert() {
-        return perform(this::reverter, false);
+        return perform(this::reverter, false, false);
+    }
+
+    /**
+     * Revert this transaction, even if it is not marked as applied. This is for Transactions that
+     * can be partly applied. Like {@link #revert()}, it waits for any other operation to finish first.
+     * @return Whether the operation succeeded or not.
+     */
+    protected final Promise<Boolean> forceRevert() {
+        return perform(this::reverter, false, true);
     }
 
-    private Promise<Boolean> perform(Supplier<Promise<Boolean>> supplier, boolean becomesApplied) {
+    private Promise<Boolean> perform(Supplier<Promise<Boolean>> supplier, boolean becomesApplied, boolean force) {
         // If someone forgot to set the applier or reverter functions, throw an exception.
         if (supplier == null) {
             throw new IllegalStateException("Cannot perform transaction operation without supplier");
@@ -84,8 +106,8 @@ public abstract class Transaction {
             // start by invoking our supplier to get a new Promise.
 
             // But first, make sure we don't try to apply when we're already
-            // applied, or try to revert when we're not applied.
-            if (applied == becomesApplied) {
+            // applied, or try to revert when we're not applied, unless we were told to.
+            if (applied == becomesApplied && !force) {
                 latch.decrement();
                 throw new RuntimeException("Cannot apply when applied, or revert when not applied");
             }
@@ -93,6 +115,8 @@ public abstract class Transaction {
             // Get a Promise produced by our supplier function. We store this Promise
             // so additional handlers can be added if desired.
             promise = supplier.get();
+            Promise<Boolean> done = new Promise<>();
+            settled = done;
 
             // Once the Promise finishes in any way, we set pending to false and
             // applied to whatever boolean value was passed as becomesApplied.
@@ -103,6 +127,7 @@ public abstract class Transaction {
                     applied = becomesApplied;
                     latch.decrement();
                 });
+                done.getFinisher().resolve(true);
             });
         });
 
@@ -110,6 +135,34 @@ public abstract class Transaction {
         return promise;
     }
 
+    /**
+     * Gets a Promise that resolves once the last action this Transaction performed has finished,
+     * and {@link #isApplied()} reflects its outcome. Unlike {@link #await()}, this does not block.
+     * @return The Promise
+     */
+    public Promise<Boolean> whenSettled() {
+        return settled;
+    }
+
+    /**
+     * Run {@code step} asynchronously once {@code promise} has finished in any way. Unlike
+     * registering both a then() and an except() handler, this does not leave behind a follow-up
+     * Promise that is rejected without anyone handling it. If {@code step} throws an exception,
+     * {@code finisher} is rejected with it, so whoever waits for {@code finisher} is never left waiting.
+     * @param promise The Promise to wait for
+     * @param finisher The finisher of the operation {@code step} is part of
+     * @param step The step to run
+     */
+    protected static void whenFinished(Promise<?> promise, IPromiseFinisher<?> finisher, Runnable step) {
+        promise.always(() -> Promise.getAsyncRunner().execute(() -> {
+            try {
+                step.run();
+            } catch (Exception ex) {
+                finisher.reject(ex);
+            }
+        }));
+    }
+
     /**
      * Await the Promise of the last action this Transaction performed.
      * @return True if the Promise was resolved, or false if it was rejected
@@ -0,0 +1,103 @@
+package com.ellirion.util;
+
+import net.minecraft.server.v1_12_R1.NBTCompressedStreamTools;
+import net.minecraft.server.v1_12_R1.NBTTagCompound;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class BlockChangeJournalTest {
+
+    private static final UUID WORLD_ID = UUID.randomUUID();
+
+    @Test
+    public void applied_whenReplayStoppedHalfway_shouldOnlyKeepRecordedChanges() {
+        BlockChangeJournal journal = new BlockChangeJournal(world());
+        for (int i = 0; i < 4; i++) {
+            journal.add(i, 64, -i, Material.STONE, (byte) i, null);
+        }
+        // Only the first and third change made it into the world.
+        journal.setBefore(0, Material.DIRT.getId(), (byte) 1, null);
+        journal.setBefore(2, Material.GRASS.getId(), (byte) 0, null);
+
+        BlockChangeJournal applied = journal.applied();
+
+        assertEquals(2, applied.size());
+        assertEquals(0, applied.getX(0));
+        assertEquals(2, applied.getX(1));
+        assertEquals(-2, applied.getZ(1));
+        assertEquals(Material.DIRT.getId(), applied.getTypeId(0, false));
+        assertEquals(1, applied.getData(0, false));
+        assertEquals(Material.GRASS.getId(), applied.getTypeId(1, false));
+        assertEquals(Material.STONE.getId(), applied.getTypeId(1, true));
+        assertEquals(2, applied.getData(1, true));
+        for (int i = 0; i < applied.size(); i++) {
+            assertNotEquals(BlockChangeJournal.UNKNOWN, applied.getTypeId(i, false));
+        }
+        assertEquals(4, journal.size());
+    }
+
+    @Test
+    public void applied_whenNothingWasRecorded_shouldBeEmpty() {
+        BlockChangeJournal journal = new BlockChangeJournal(world());
+        journal.add(0, 64, 0, Material.STONE, (byte) 0, null);
+
+        assertEquals(0, journal.applied().size());
+    }
+
+    @Test
+    public void add_whenYIsOutOfRange_shouldThrowAndRecordNothing() {
+        BlockChangeJournal journal = new BlockChangeJournal(world());
+        for (int y : new int[] {-1, 4096}) {
+            try {
+                journal.add(0, y, 0, Material.STONE, (byte) 0, null);
+                fail("Y coordinate " + y + " was accepted");
+            } catch (IllegalArgumentException ex) {
+                // Expected
+            }
+        }
+        journal.add(0, 4095, 0, Material.STONE, (byte) 0, null);
+
+        assertEquals(1, journal.size());
+        assertEquals(4095, journal.getY(0));
+    }
+
+    @Test
+    public void setBefore_whenNbtKeepsGrowing_shouldOnlyKeepTheLatestBlob() throws IOException {
+        BlockChangeJournal journal = new BlockChangeJournal(world());
+        journal.add(0, 64, 0, Material.STONE, (byte) 0, null);
+        long initial = journal.getMemoryUsage();
+
+        NBTTagCompound nbt = new NBTTagCompound();
+        for (int i = 0; i < 200; i++) {
+            // Every blob is larger than the one before it, so none of them fits in the place of the last.
+            nbt.setInt("key" + i, i);
+            journal.setBefore(0, Material.STONE.getId(), (byte) 0, nbt);
+        }
+
+        // Old blobs are dropped when the blobs are packed together, so they take about twice the latest one.
+        ByteArrayOutputStream blob = new ByteArrayOutputStream();
+        NBTCompressedStreamTools.a(nbt, blob);
+        assertTrue(journal.getMemoryUsage() - initial <= 3 * (blob.size() + 4));
+        NBTTagCompound latest = journal.getNbt(0, false);
+        assertEquals(0, latest.getInt("key0"));
+        assertEquals(199, latest.getInt("key199"));
+    }
+
+    private static World world() {
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[] {World.class},
+                                              (proxy, method, args) -> {
+                                                  if (method.getName().equals("getUID")) {
+                                                      return WORLD_ID;
+                                                  }
+                                                  throw new UnsupportedOperationException(method.getName());
+                                              });
+    }
+}
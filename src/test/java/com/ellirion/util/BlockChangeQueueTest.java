@@ -0,0 +1,93 @@
+package com.ellirion.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BlockChangeQueueTest {
+
+    @Test
+    public void poll_whenBucketsRunDry_shouldRankEveryBucketOncePerRanking() {
+        BlockChangeQueue<Integer, Integer> queue = new BlockChangeQueue<>(item -> item);
+        for (int i = 0; i < 100; i++) {
+            queue.add(new Run(i), BlockChangePriority.NORMAL, null);
+        }
+        AtomicInteger ranked = new AtomicInteger();
+        queue.setRanking(key -> {
+            ranked.incrementAndGet();
+            return -key;
+        });
+
+        // The highest key has the lowest rank, so it goes first.
+        for (int i = 99; i >= 0; i--) {
+            assertEquals(i, (int) queue.poll());
+        }
+        assertNull(queue.poll());
+        assertEquals(100, ranked.get());
+    }
+
+    @Test
+    public void poll_whenRankingChanges_shouldRankAgain() {
+        BlockChangeQueue<Integer, Integer> queue = new BlockChangeQueue<>(item -> item);
+        for (int i = 0; i < 4; i++) {
+            queue.add(new Run(i), BlockChangePriority.NORMAL, null);
+        }
+
+        queue.setRanking(key -> key);
+        assertEquals(0, (int) queue.poll());
+        queue.setRanking(key -> -key);
+        assertEquals(3, (int) queue.poll());
+
+        // Buckets that are added later are ranked as well.
+        queue.add(new Run(7), BlockChangePriority.NORMAL, null);
+        assertEquals(7, (int) queue.poll());
+        assertEquals(2, (int) queue.poll());
+        assertEquals(1, (int) queue.poll());
+    }
+
+    @Test
+    public void poll_whenRanksAreEqual_shouldTakeOldestBucketFirst() {
+        BlockChangeQueue<Integer, Integer> queue = new BlockChangeQueue<>(item -> item);
+        queue.add(new Run(5), BlockChangePriority.NORMAL, null);
+        queue.add(new Run(1), BlockChangePriority.NORMAL, null);
+        queue.add(new Run(3), BlockChangePriority.NORMAL, null);
+
+        assertEquals(5, (int) queue.poll());
+        assertEquals(1, (int) queue.poll());
+        assertEquals(3, (int) queue.poll());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void add_whenPriorityIsNull_shouldThrow() {
+        new BlockChangeQueue<Integer, Integer>(item -> item).add(new Run(0), null, null);
+    }
+
+    private static final class Run implements BlockChangeQueue.IRun<Integer> {
+
+        private final int item;
+        private boolean taken;
+
+        Run(final int item) {
+            this.item = item;
+            this.taken = false;
+        }
+
+        @Override
+        public Integer peek() {
+            return item;
+        }
+
+        @Override
+        public Integer take() {
+            taken = true;
+            return item;
+        }
+
+        @Override
+        public int size() {
+            return taken ? 0 : 1;
+        }
+    }
+}
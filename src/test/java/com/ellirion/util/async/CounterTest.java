@@ -0,0 +1,127 @@
+package com.ellirion.util.async;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class CounterTest {
+
+    @Test
+    public void await_whenAlreadyReached_shouldReturnImmediately() {
+        Counter c = new Counter(2);
+
+        c.await(2);
+        assertTrue(c.await(2, 0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void await_whenReachedFromAnotherThread_shouldReturn() throws Exception {
+        Counter c = new Counter(3);
+        Thread t = new Thread(() -> {
+            for (int i = 0; i < 3; i++) {
+                PromiseTest.sleep(10);
+                c.decrement();
+            }
+        });
+        t.start();
+
+        c.await();
+        assertEquals(0, c.get());
+        t.join();
+    }
+
+    @Test
+    public void await_whenTimeoutElapses_shouldReturnFalse() {
+        Counter c = new Counter(1);
+
+        long start = System.nanoTime();
+        assertFalse(c.await(0, 50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void await_whenReachedWithinTimeout_shouldReturnTrue() {
+        Counter c = new Counter(1);
+        new Thread(() -> {
+            PromiseTest.sleep(20);
+            c.decrement();
+        }).start();
+
+        assertTrue(c.await(0, 2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void perform_whenAwaitingInside_shouldReleaseLockWhileWaiting() throws Exception {
+        Counter c = new Counter(1);
+        CountDownLatch waiting = new CountDownLatch(1);
+        AtomicBoolean entered = new AtomicBoolean();
+        Thread t = new Thread(() -> {
+            try {
+                waiting.await();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            c.perform(() -> {
+                entered.set(true);
+                c.decrement();
+            });
+        });
+        t.start();
+
+        c.perform(() -> {
+            waiting.countDown();
+            assertTrue(c.await(0, 2, TimeUnit.SECONDS));
+        });
+        t.join();
+        assertTrue(entered.get());
+    }
+
+    @Test
+    public void await_whenCountPassesTargetWhileWaiting_shouldReturnTrue() throws Exception {
+        for (int round = 0; round < 100; round++) {
+            Counter c = new Counter(1);
+            AtomicBoolean reached = new AtomicBoolean();
+            Thread t = new Thread(() -> reached.set(c.await(0, 5, TimeUnit.SECONDS)));
+            t.start();
+            awaitParked(t);
+
+            // The count is back at one by the time the waiter gets to look at it.
+            c.decrement();
+            c.increment();
+            t.join();
+            assertTrue(reached.get());
+        }
+    }
+
+    @Test
+    public void decrement_whenWaitersHaveOtherTargets_shouldOnlyWakeTheReachedOne() throws Exception {
+        Counter c = new Counter(3);
+        AtomicBoolean first = new AtomicBoolean();
+        AtomicBoolean second = new AtomicBoolean();
+        Thread t1 = new Thread(() -> first.set(c.await(2, 5, TimeUnit.SECONDS)));
+        Thread t2 = new Thread(() -> second.set(c.await(1, 5, TimeUnit.SECONDS)));
+        t1.start();
+        t2.start();
+        awaitParked(t1);
+        awaitParked(t2);
+
+        c.decrement();
+        t1.join();
+        assertTrue(first.get());
+        assertTrue(t2.isAlive());
+
+        c.decrement();
+        t2.join();
+        assertTrue(second.get());
+    }
+
+    private static void awaitParked(Thread t) {
+        while (t.getState() != Thread.State.WAITING && t.getState() != Thread.State.TIMED_WAITING) {
+            Thread.yield();
+        }
+    }
+}
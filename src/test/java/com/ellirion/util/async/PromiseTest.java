@@ -0,0 +1,319 @@
+package com.ellirion.util.async;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.ellirion.util.async.PromiseState.*;
+import static org.junit.Assert.*;
+
+public class PromiseTest {
+
+    private static final int ROUNDS = 500;
+    private static final int THREADS = 4;
+
+    private static ExecutorService racers;
+
+    @BeforeClass
+    public static void setUp() {
+        racers = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        racers.shutdownNow();
+    }
+
+    @Test
+    public void resolve_whenResolvedTwice_shouldKeepFirstResult() {
+        Promise<Integer> p = new Promise<>();
+        p.getFinisher().resolve(1);
+        p.getFinisher().resolve(2);
+        p.getFinisher().reject(new Exception());
+
+        assertSame(RESOLVED, p.getState());
+        assertEquals(1, (int) p.getResult());
+        assertNull(p.getException());
+        assertFalse(p.cancel());
+    }
+
+    @Test
+    public void settle_whenResolveRejectAndCancelRace_shouldSettleOnceAndRunHandlersOnce() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            Promise<Integer> p = new Promise<>();
+            AtomicInteger handled = new AtomicInteger();
+            p.always(handled::incrementAndGet);
+
+            Exception failure = new Exception("rejected");
+            AtomicInteger won = new AtomicInteger();
+            race(() -> p.getFinisher().resolve(1),
+                 () -> p.getFinisher().reject(failure),
+                 () -> {
+                     if (p.cancel()) {
+                         won.incrementAndGet();
+                     }
+                 });
+
+            assertTrue(p.await(1, TimeUnit.SECONDS) || p.getState() == REJECTED);
+            assertEquals(1, handled.get());
+            assertTrue(won.get() <= 1);
+            switch (p.getState()) {
+                case RESOLVED:
+                    assertEquals(1, (int) p.getResult());
+                    assertNull(p.getException());
+                    assertEquals(0, won.get());
+                    break;
+                case REJECTED:
+                    assertNull(p.getResult());
+                    assertTrue(p.getException() == failure
+                               || p.getException() instanceof CancellationException);
+                    assertEquals(p.getException() == failure ? 0 : 1, won.get());
+                    break;
+                default:
+                    fail("Promise was not settled: " + p.getState());
+            }
+        }
+    }
+
+    @Test
+    public void always_whenAddedConcurrentlyWithSettling_shouldRunEveryHandlerOnce() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            Promise<Integer> p = new Promise<>();
+            AtomicInteger handled = new AtomicInteger();
+            Runnable add = () -> {
+                for (int i = 0; i < 10; i++) {
+                    p.always(handled::incrementAndGet);
+                }
+            };
+
+            race(add, add, () -> p.getFinisher().resolve(1), add);
+
+            assertTrue(p.await(1, TimeUnit.SECONDS));
+            assertEquals(30, handled.get());
+        }
+    }
+
+    @Test
+    public void then_whenAddedConcurrentlyWithSettling_shouldRunEveryFollowUpOnce() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            Promise<Integer> p = new Promise<>();
+            List<Promise<Integer>> next = new ArrayList<>();
+            Runnable add = () -> {
+                Promise<Integer> q = p.then(i -> i + 1);
+                synchronized (next) {
+                    next.add(q);
+                }
+            };
+
+            race(add, () -> p.getFinisher().resolve(1), add);
+
+            for (Promise<Integer> q : next) {
+                assertTrue(q.await(1, TimeUnit.SECONDS));
+                assertEquals(2, (int) q.getResult());
+            }
+            assertEquals(2, next.size());
+        }
+    }
+
+    @Test
+    public void await_whenResolvedFromAnotherThread_shouldReturnTrue() {
+        Promise<Integer> p = new Promise<>(f -> {
+            sleep(20);
+            f.resolve(1);
+        }, true);
+
+        assertTrue(p.await());
+        assertSame(RESOLVED, p.getState());
+    }
+
+    @Test
+    public void await_whenRejectedFromAnotherThread_shouldReturnFalse() {
+        Promise<Integer> p = new Promise<>(f -> {
+            sleep(20);
+            f.reject(new Exception());
+        }, true, false);
+        p.except(ex -> { });
+        p.schedule();
+
+        assertFalse(p.await());
+        assertSame(REJECTED, p.getState());
+    }
+
+    @Test
+    public void await_whenTimeoutElapses_shouldReturnFalse() {
+        Promise<Integer> p = new Promise<>();
+
+        long start = System.nanoTime();
+        assertFalse(p.await(50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertSame(PENDING, p.getState());
+    }
+
+    @Test
+    public void await_whenResolvedWithinTimeout_shouldReturnTrue() {
+        Promise<Integer> p = new Promise<>(f -> {
+            sleep(20);
+            f.resolve(1);
+        }, true);
+
+        assertTrue(p.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void await_whenFollowUpsArePending_shouldWaitForThem() {
+        Promise<Integer> p = new Promise<>(f -> f.resolve(1), true, false);
+        AtomicInteger ran = new AtomicInteger();
+        p.then(i -> {
+            sleep(20);
+            return ran.incrementAndGet();
+        }, true);
+        p.schedule();
+
+        assertTrue(p.await());
+        assertEquals(1, ran.get());
+    }
+
+    @Test
+    public void cancel_whenPending_shouldCancelFollowUps() {
+        Promise<Integer> p = new Promise<>();
+        Promise<Integer> q = p.then(i -> i + 1);
+
+        assertTrue(p.cancel());
+        assertTrue(p.getException() instanceof CancellationException);
+        assertSame(REJECTED, q.getState());
+        assertTrue(q.getException() instanceof CancellationException);
+    }
+
+    @Test
+    public void then_whenChainingSynchronousFollowUps_shouldRunThemInOneTask() {
+        AtomicInteger tasks = new AtomicInteger();
+        Executor runner = Promise.getSyncRunner();
+        Promise.setSyncRunner(r -> {
+            tasks.incrementAndGet();
+            r.run();
+        });
+        try {
+            Promise<Integer> root = new Promise<>();
+            Promise<Integer> last = root;
+            for (int i = 0; i < 100; i++) {
+                last = last.then(n -> n + 1);
+            }
+            root.getFinisher().resolve(0);
+
+            assertEquals(100, (int) last.getResult());
+            assertEquals(1, tasks.get());
+        } finally {
+            Promise.setSyncRunner(runner);
+        }
+    }
+
+    @Test
+    public void then_whenChainIsDeep_shouldNotGrowTheStack() {
+        Promise<Integer> root = new Promise<>();
+        Promise<Integer> last = root;
+        for (int i = 0; i < 100000; i++) {
+            last = last.then(n -> n + 1);
+        }
+        root.getFinisher().resolve(0);
+
+        assertEquals(100000, (int) last.getResult());
+    }
+
+    @Test
+    public void then_whenPromiseHasSeveralSynchronousFollowUps_shouldRunEachOfThem() {
+        AtomicInteger tasks = new AtomicInteger();
+        Executor runner = Promise.getSyncRunner();
+        Promise.setSyncRunner(r -> {
+            tasks.incrementAndGet();
+            r.run();
+        });
+        try {
+            Promise<Integer> root = new Promise<>();
+            Promise<Integer> middle = root.then(n -> n + 1);
+            Promise<Integer> left = middle.then(n -> n + 10).then(n -> n + 1);
+            Promise<Integer> right = middle.then(n -> n + 20).then(n -> n + 1);
+            root.getFinisher().resolve(0);
+
+            assertEquals(12, (int) left.getResult());
+            assertEquals(22, (int) right.getResult());
+            // The split is not fused, so both branches got a task of their own.
+            assertTrue(tasks.get() >= 3);
+        } finally {
+            Promise.setSyncRunner(runner);
+        }
+    }
+
+    @Test
+    public void all_whenInputRejectsWithoutHandlers_shouldStillReleaseInput() {
+        Promise<Integer> in1 = new Promise<>(f -> {
+            sleep(50);
+            f.reject(new Exception("rejected"));
+        }, true);
+        Promise<?> all = Promise.all(in1);
+        Promise<Integer> in2 = new Promise<>();
+        in1.always(() -> in2.getFinisher().resolve(2));
+
+        long start = System.nanoTime();
+        assertFalse(in1.await(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertSame(REJECTED, in1.getState());
+        assertSame(REJECTED, all.getState());
+        assertSame(RESOLVED, in2.getState());
+    }
+
+    @Test
+    public void always_whenHandlerThrows_shouldStillReleaseWaiters() {
+        Promise<Integer> p = new Promise<>();
+        p.always(() -> {
+            throw new IllegalStateException();
+        });
+
+        try {
+            p.getFinisher().resolve(1);
+            fail("The exception of the handler was not thrown");
+        } catch (IllegalStateException ex) {
+            // Expected
+        }
+        assertTrue(p.await(1, TimeUnit.SECONDS));
+    }
+
+    private static void race(Runnable... runnables) throws Exception {
+        CountDownLatch ready = new CountDownLatch(runnables.length);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(runnables.length);
+        for (Runnable r : runnables) {
+            racers.execute(() -> {
+                ready.countDown();
+                try {
+                    start.await();
+                    r.run();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+        ready.await();
+        start.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+    }
+
+    static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.ellirion.util.transact;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import com.ellirion.util.async.ForkJoinRunner;
+import com.ellirion.util.async.Promise;
+import com.ellirion.util.async.PromiseState;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SequenceTransactionTest {
+
+    private static final int DEPTH = 200;
+    private static final int PARALLELISM = 2;
+
+    private Executor previous;
+    private ForkJoinRunner runner;
+
+    @Before
+    public void setUp() {
+        previous = Promise.getAsyncRunner();
+        runner = new ForkJoinRunner(PARALLELISM, "SequenceTransactionTest");
+        Promise.setAsyncRunner(runner);
+    }
+
+    @After
+    public void tearDown() {
+        Promise.setAsyncRunner(previous);
+        runner.shutdown(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void apply_whenNestedDeeply_shouldFinishWithoutGrowingThePool() {
+        AtomicInteger applied = new AtomicInteger();
+        Transaction root = nest(applied);
+
+        assertTrue(root.apply().await(10, TimeUnit.SECONDS));
+        assertTrue(root.isApplied());
+        assertEquals(DEPTH, applied.get());
+
+        assertTrue(root.revert().await(10, TimeUnit.SECONDS));
+        assertFalse(root.isApplied());
+        assertEquals(0, applied.get());
+
+        // Nobody waited on a pool thread, so the pool never had to start compensating threads.
+        assertTrue("The pool grew to " + runner.getPoolSize() + " threads", runner.getPoolSize() <= PARALLELISM);
+    }
+
+    @Test
+    public void whenSettled_whenApplyFinishes_shouldSeeTheNewState() {
+        for (int i = 0; i < 500; i++) {
+            Transaction t = leaf(new AtomicInteger());
+            t.apply();
+
+            assertTrue(t.whenSettled().await(1, TimeUnit.SECONDS));
+            assertTrue(t.isApplied());
+        }
+    }
+
+    @Test
+    public void apply_whenChildResolvesNull_shouldFailAndRevertEarlierChildren() {
+        AtomicInteger applied = new AtomicInteger();
+        Transaction root = new SequenceTransaction(leaf(applied), new SimpleTransaction(
+                () -> Promise.resolve(null), () -> Promise.resolve(true)));
+
+        Promise<Boolean> p = root.apply();
+        assertTrue(p.await(1, TimeUnit.SECONDS));
+        assertFalse(p.getResult());
+        assertEquals(0, applied.get());
+        assertTrue(root.whenSettled().await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void apply_whenStepThrows_shouldReject() {
+        Transaction root = new SequenceTransaction(new BrokenTransaction());
+
+        Promise<Boolean> p = root.apply();
+        p.except(ex -> { });
+        assertFalse(p.await(1, TimeUnit.SECONDS));
+        assertSame(PromiseState.REJECTED, p.getState());
+        assertTrue(p.getException() instanceof IllegalStateException);
+        assertTrue(root.whenSettled().await(1, TimeUnit.SECONDS));
+    }
+
+    private static Transaction nest(AtomicInteger applied) {
+        Transaction t = leaf(applied);
+        for (int i = 1; i < DEPTH; i++) {
+            t = new SequenceTransaction(leaf(applied), t);
+        }
+        return t;
+    }
+
+    private static Transaction leaf(AtomicInteger applied) {
+        return new SimpleTransaction(() -> new Promise<>(f -> {
+            applied.incrementAndGet();
+            f.resolve(true);
+        }, true), () -> new Promise<>(f -> {
+            applied.decrementAndGet();
+            f.resolve(true);
+        }, true));
+    }
+
+    private static final class BrokenTransaction extends Transaction {
+
+        @Override
+        public boolean isApplied() {
+            // The sequence asks for this while it waits for its children, from within one of its steps.
+            throw new IllegalStateException("Broken");
+        }
+
+        @Override
+        protected Promise<Boolean> applier() {
+            return Promise.resolve(true);
+        }
+
+        @Override
+        protected Promise<Boolean> reverter() {
+            return Promise.resolve(true);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.ellirion.util.transact;
+
+import org.junit.Test;
+import com.ellirion.util.async.Promise;
+import com.ellirion.util.async.PromiseState;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TransactionTest {
+
+    @Test
+    public void apply_whenAlreadyApplied_shouldThrow() {
+        CountingTransaction t = new CountingTransaction(0);
+        assertTrue(t.apply().await(1, TimeUnit.SECONDS));
+
+        try {
+            t.apply();
+            fail("A Transaction was applied twice");
+        } catch (RuntimeException ex) {
+            // Expected
+        }
+        assertEquals(1, t.changes.get());
+    }
+
+    @Test
+    public void forceRevert_whenNotApplied_shouldRevert() {
+        CountingTransaction t = new CountingTransaction(0);
+
+        assertTrue(t.forceRevert().await(1, TimeUnit.SECONDS));
+        assertFalse(t.isApplied());
+        assertEquals(-1, t.changes.get());
+    }
+
+    @Test
+    public void forceRevert_whenApplyIsRunning_shouldRevertAfterIt() {
+        CountingTransaction t = new CountingTransaction(50);
+        Promise<Boolean> apply = t.apply();
+
+        Promise<Boolean> revert = t.forceRevert();
+
+        assertSame(PromiseState.RESOLVED, apply.getState());
+        assertTrue(revert.await(1, TimeUnit.SECONDS));
+        assertFalse(t.isApplied());
+        assertEquals(0, t.changes.get());
+    }
+
+    private static final class CountingTransaction extends Transaction {
+
+        private final AtomicInteger changes = new AtomicInteger();
+        private final long delay;
+
+        CountingTransaction(final long delay) {
+            this.delay = delay;
+        }
+
+        @Override
+        protected Promise<Boolean> applier() {
+            return change(1);
+        }
+
+        @Override
+        protected Promise<Boolean> reverter() {
+            return change(-1);
+        }
+
+        private Promise<Boolean> change(int delta) {
+            return new Promise<>(f -> {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    throw new RuntimeException(ex);
+                }
+                changes.addAndGet(delta);
+                f.resolve(true);
+            }, true);
+        }
+    }
+}